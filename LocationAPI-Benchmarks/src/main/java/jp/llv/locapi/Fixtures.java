@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+/**
+ * Fixtures.
+ * ベンチマークで用いるプレイヤーとパケットを作成します.
+ * パケットは1.8のプロトコルに従い、パケットIDから始まります。
+ *
+ * @author toyblocks
+ */
+final class Fixtures {
+
+    static final int PROTOCOL_VERSION = ProtocolMapping.MINECRAFT_1_8;
+
+    private Fixtures() {
+    }
+
+    //UUIDと名前のみを持つプレイヤー
+    static ProxiedPlayer player(final UUID uuid, final String name) {
+        return (ProxiedPlayer) Proxy.newProxyInstance(ProxiedPlayer.class.getClassLoader(), new Class<?>[]{ProxiedPlayer.class}, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                switch (method.getName()) {
+                    case "getUniqueId":
+                        return uuid;
+                    case "getName":
+                        return name;
+                    case "hashCode":
+                        return uuid.hashCode();
+                    case "equals":
+                        return proxy == args[0];
+                    case "toString":
+                        return name;
+                    default:
+                        return null;
+                }
+            }
+
+        });
+    }
+
+    static ProxiedPlayer player(int i) {
+        return player(new UUID(0x4C41504942454E43L, i), "bench" + i);
+    }
+
+    static ByteBuf flying(boolean onGround) {
+        return Unpooled.buffer(2).writeByte(0x03).writeBoolean(onGround);
+    }
+
+    static ByteBuf position(double x, double y, double z, boolean onGround) {
+        return Unpooled.buffer(26).writeByte(0x04).writeDouble(x).writeDouble(y).writeDouble(z).writeBoolean(onGround);
+    }
+
+    static ByteBuf look(float yaw, float pitch, boolean onGround) {
+        return Unpooled.buffer(10).writeByte(0x05).writeFloat(yaw).writeFloat(pitch).writeBoolean(onGround);
+    }
+
+    static ByteBuf positionAndLook(double x, double y, double z, float yaw, float pitch, boolean onGround) {
+        return Unpooled.buffer(34).writeByte(0x06).writeDouble(x).writeDouble(y).writeDouble(z)
+                .writeFloat(yaw).writeFloat(pitch).writeBoolean(onGround);
+    }
+
+    //移動に関係しないパケット. Animation
+    static ByteBuf animation() {
+        return Unpooled.buffer(1).writeByte(0x0A);
+    }
+
+    //移動に関係しないパケット. Entity Relative Move
+    static ByteBuf entityMove(int entity) {
+        ByteBuf buf = Unpooled.buffer(9).writeByte(0x15);
+        writeVarInt(buf, entity);
+        return buf.writeByte(1).writeByte(0).writeByte(-1).writeBoolean(true);
+    }
+
+    static ByteBuf teleport(double x, double y, double z, float yaw, float pitch, int flag) {
+        return Unpooled.buffer(34).writeByte(0x08).writeDouble(x).writeDouble(y).writeDouble(z)
+                .writeFloat(yaw).writeFloat(pitch).writeByte(flag);
+    }
+
+    static ByteBuf pluginMessage(String tag, ByteBuf data) {
+        byte[] bytes = tag.getBytes(StandardCharsets.UTF_8);
+        ByteBuf buf = Unpooled.buffer().writeByte(0x3F);
+        writeVarInt(buf, bytes.length);
+        return buf.writeBytes(bytes).writeBytes(data);
+    }
+
+    //LAPIW: ワールドの一覧
+    static ByteBuf worlds(int count) {
+        ByteBuf data = Unpooled.buffer().writeByte(1).writeByte(0);
+        writeVarInt(data, count);
+        for (int i = 0; i < count; i++) {
+            byte[] name = ("world_" + i).getBytes(StandardCharsets.UTF_8);
+            writeVarInt(data, i);
+            data.writeLong(0x4C41504957L).writeLong(i).writeByte(i % 3 - 1);
+            writeVarInt(data, name.length);
+            data.writeBytes(name);
+        }
+        return pluginMessage(PacketHandler.WORLD_MESSAGE_TAG, data);
+    }
+
+    //LAPIW: ワールドの移動
+    static ByteBuf change(int world) {
+        ByteBuf data = Unpooled.buffer().writeByte(1).writeByte(1);
+        writeVarInt(data, world);
+        return pluginMessage(PacketHandler.WORLD_MESSAGE_TAG, data);
+    }
+
+    static void writeVarInt(ByteBuf buf, int value) {
+        while ((value & ~0x7F) != 0) {
+            buf.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte(value);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * LocationBenchmark.
+ * {@link Location}の更新と距離の計算を測ります.
+ * 登録されたプレイヤーの位置はLocationStoreのスロットへ、単独の位置は自身のフィールドへ書き込みます。
+ *
+ * @author toyblocks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LocationBenchmark {
+
+    private ProxiedPlayer player;
+    private Location registered, standalone, other;
+    private final Vector vector = new Vector();
+    private double t;
+
+    @Setup
+    public void setup() {
+        this.player = Fixtures.player(1);
+        this.registered = Location.getOrCreateOf(this.player);
+        this.standalone = Location.of(12.5D, 64D, -3.25D, 90F, 0F, true);
+        this.other = Location.of(-7D, 70.5D, 5D, 0F, 0F, false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Location.remove(this.player);
+    }
+
+    @Benchmark
+    public Location updateRegistered() {
+        double v = this.t += 0.125D;
+        return this.registered.update(v, 64D, -v, 90F, 0F, true);
+    }
+
+    @Benchmark
+    public Location updateStandalone() {
+        double v = this.t += 0.125D;
+        return this.standalone.update(v, 64D, -v, 90F, 0F, true);
+    }
+
+    @Benchmark
+    public double lengthSquared() {
+        return this.other.lengthSquared();
+    }
+
+    @Benchmark
+    public double distanceSquared() {
+        return this.registered.distanceSquared(this.other);
+    }
+
+    @Benchmark
+    public Vector subtractInto() {
+        return this.registered.subtractInto(this.other, this.vector);
+    }
+
+    @Benchmark
+    public Vector direction() {
+        return this.registered.getDirection(this.vector);
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.protocol.PacketWrapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * PacketHandlerBenchmark.
+ * {@link PacketHandler}を通るパケットの処理量を測ります.
+ * 受信側はクライアントが毎tick送る移動パケットの比率に近い組み合わせ、
+ * 送信側は移動に関係しないパケットに時々テレポートとワールドの移動が混ざる組み合わせです。
+ * プレイヤーは半径2の円周上を移動し続けるため、異常として検出されることはありません。
+ * プレイヤーは{@link LocationDemand#setPassive(java.lang.String, boolean)}で指定されたサーバーに接続しており、
+ * 利用者がいる場合の処理と、利用者がいない間に位置の更新だけを行う場合をそれぞれ測ります。
+ *
+ * @author toyblocks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketHandlerBenchmark {
+
+    private static final int MIX = 64;
+    private static final double RADIUS = 2D;
+    private static final String SERVER = "benchmark";
+
+    @Param({"true", "false"})
+    public boolean demanded;
+
+    private ProxiedPlayer player;
+    private EmbeddedChannel channel;
+    private final PacketWrapper[] inbound = new PacketWrapper[MIX];
+    private final PacketWrapper[] outbound = new PacketWrapper[MIX];
+    private int cursor;
+    private LocationDemand.Handle demand;
+
+    @Setup
+    public void setup() {
+        this.player = Fixtures.player(0);
+        Location.getOrCreateOf(this.player);
+        LocationDemand.setPassive(SERVER, true);
+        if (this.demanded) {
+            this.demand = LocationDemand.acquire();
+        }
+        PacketHandler handler = new PacketHandler(this.player, ProtocolMapping.of(Fixtures.PROTOCOL_VERSION));
+        handler.connected(SERVER);
+        this.channel = new EmbeddedChannel(handler);
+        Random random = new Random(0L);
+        for (int i = 0; i < MIX; i++) {
+            double angle = Math.PI * 2D * i / MIX;
+            double x = Math.cos(angle) * RADIUS, z = Math.sin(angle) * RADIUS;
+            float yaw = (float) Math.toDegrees(angle), pitch = 10F;
+            //位置45%, 位置と視点25%, 視点15%, 地面10%, その他5%
+            int kind = random.nextInt(100);
+            ByteBuf buf;
+            if (kind < 45) {
+                buf = Fixtures.position(x, 64D, z, true);
+            } else if (kind < 70) {
+                buf = Fixtures.positionAndLook(x, 64D, z, yaw, pitch, true);
+            } else if (kind < 85) {
+                buf = Fixtures.look(yaw, pitch, true);
+            } else if (kind < 95) {
+                buf = Fixtures.flying(true);
+            } else {
+                buf = Fixtures.animation();
+            }
+            this.inbound[i] = new PacketWrapper(null, buf);
+        }
+        this.channel.writeOutbound(new PacketWrapper(null, Fixtures.worlds(2)));
+        this.channel.readOutbound();
+        for (int i = 0; i < MIX; i++) {
+            ByteBuf buf;
+            if (i % 32 == 7) {
+                buf = Fixtures.teleport(RADIUS, 64D, 0D, 0F, 0F, 0);
+            } else if (i % 32 == 23) {
+                buf = Fixtures.change(i / 32);
+            } else {
+                buf = Fixtures.entityMove(i);
+            }
+            this.outbound[i] = new PacketWrapper(null, buf);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.channel.finish();
+        Location.remove(this.player);
+        if (this.demand != null) {
+            this.demand.release();
+            this.demand = null;
+        }
+        LocationDemand.setPassive(SERVER, false);
+    }
+
+    @Benchmark
+    public Object channelRead() {
+        this.channel.pipeline().fireChannelRead(this.inbound[this.cursor++ & (MIX - 1)]);
+        return this.channel.readInbound();
+    }
+
+    @Benchmark
+    public Object write() {
+        this.channel.writeOutbound(this.outbound[this.cursor++ & (MIX - 1)]);
+        return this.channel.readOutbound();
+    }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * RegistryBenchmark.
+ * {@link Location#of(java.util.UUID)}と{@link Location#of(java.lang.String)}による登録簿の検索を測ります.
+ * contendedグループでは、検索する3スレッドと並行して1スレッドがプレイヤーの接続と切断を繰り返します。
+ *
+ * @author toyblocks
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegistryBenchmark {
+
+    private static final int CHURN = 64;
+
+    @Param({"100", "5000"})
+    public int players;
+
+    private ProxiedPlayer[] registered;
+    private UUID[] uuids;
+    private String[] names;
+    private final ProxiedPlayer[] churn = new ProxiedPlayer[CHURN];
+
+    @Setup
+    public void setup() {
+        this.registered = new ProxiedPlayer[this.players];
+        this.uuids = new UUID[this.players];
+        this.names = new String[this.players];
+        for (int i = 0; i < this.players; i++) {
+            this.registered[i] = Fixtures.player(i);
+            this.uuids[i] = this.registered[i].getUniqueId();
+            this.names[i] = this.registered[i].getName();
+            Location.getOrCreateOf(this.registered[i]);
+        }
+        for (int i = 0; i < CHURN; i++) {
+            this.churn[i] = Fixtures.player(this.players + i);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (ProxiedPlayer player : this.registered) {
+            Location.remove(player);
+        }
+        for (ProxiedPlayer player : this.churn) {
+            Location.remove(player);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+
+        int index;
+
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Location lookup(Cursor cursor) {
+        return Location.of(this.uuids[cursor.index++ % this.players]);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Location lookupByName(Cursor cursor) {
+        return Location.of(this.names[cursor.index++ % this.players]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public Location contendedLookup(Cursor cursor) {
+        return Location.of(this.uuids[cursor.index++ % this.players]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public Location contendedChurn(Cursor cursor) {
+        int i = cursor.index++;
+        ProxiedPlayer player = this.churn[(i >> 1) & (CHURN - 1)];
+        if ((i & 1) == 0) {
+            return Location.getOrCreateOf(player);
+        }
+        Location.remove(player);
+        return null;
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import java.util.concurrent.TimeUnit;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WorldMessageBenchmark.
+ * LAPIWメッセージの読み取りを測ります.
+ * 読み取りはバッファの位置を動かさないため、同じバッファを繰り返し読み取ります。
+ *
+ * @author toyblocks
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WorldMessageBenchmark {
+
+    //パケットIDの次にあるタグの位置
+    private static final int TAG_INDEX = 1;
+
+    @Param({"1", "16"})
+    public int count;
+
+    private ProxiedPlayer player;
+    private PacketHandler handler;
+    private ByteBuf worlds, change, foreign;
+    private int cursor;
+
+    @Setup
+    public void setup() {
+        this.player = Fixtures.player(2);
+        Location.getOrCreateOf(this.player);
+        this.handler = new PacketHandler(this.player, ProtocolMapping.of(Fixtures.PROTOCOL_VERSION));
+        this.worlds = Fixtures.worlds(this.count);
+        this.change = Fixtures.change(0);
+        this.foreign = Fixtures.pluginMessage("MC|Brand", Fixtures.animation().writeBytes(new byte[16]));
+        this.handler.receivedPluginMessage(this.worlds, TAG_INDEX, 0);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Location.remove(this.player);
+    }
+
+    @Benchmark
+    public PacketHandler decodeWorlds() {
+        this.handler.receivedPluginMessage(this.worlds, TAG_INDEX, 0);
+        return this.handler;
+    }
+
+    @Benchmark
+    public PacketHandler decodeChange() {
+        ByteBuf buf = this.change.setByte(this.change.writerIndex() - 1, this.cursor++ % this.count);
+        this.handler.receivedPluginMessage(buf, TAG_INDEX, 0);
+        return this.handler;
+    }
+
+    @Benchmark
+    public PacketHandler skipForeign() {
+        this.handler.receivedPluginMessage(this.foreign, TAG_INDEX, 0);
+        return this.handler;
+    }
+
+}
@@ -23,49 +23,143 @@
  */
 package jp.llv.locapi;
 
-import java.nio.ByteBuffer;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerRegisterChannelEvent;
+import org.bukkit.event.world.WorldLoadEvent;
 import org.bukkit.plugin.java.JavaPlugin;
 
 /**
  * WorldChangeListener
+ * LAPIWメッセージは先頭にバージョンと種類を持ちます。
+ * ワールドの一覧(番号, UUID, ディメンション, 名前)は参加時とワールドの読み込み時に一度だけ送信し、
+ * ワールドの移動はその番号のみを送信します。
  * @author toyblocks
  */
 public class WorldChangeListener extends JavaPlugin implements Listener {
     
     private static final String WORLD_MESSAGE_TAG = "LAPIW";
+    private static final byte PROTOCOL_VERSION = 1;
+    private static final byte TYPE_WORLDS = 0, TYPE_CHANGE = 1;
+    private static final Charset UTF_8 = StandardCharsets.UTF_8;
+    //LAPIWメッセージでのディメンション. Bukkit内部のIDには依存しない
+    private static final byte DIMENSION_NETHER = -1, DIMENSION_OVERWORLD = 0, DIMENSION_END = 1, DIMENSION_UNKNOWN = Byte.MAX_VALUE;
+    
+    //メインスレッドからのみ触れる
+    private final Map<UUID, Integer> indices = new HashMap<>();
     
     @Override
     public void onEnable() {
+        this.getServer().getMessenger().registerOutgoingPluginChannel(this, WORLD_MESSAGE_TAG);
         this.getServer().getPluginManager().registerEvents(this, this);
+        for (World w : this.getServer().getWorlds()) {
+            this.indexOf(w);
+        }
     }
     
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onJoin(PlayerJoinEvent eve) {
-        sendPM(eve.getPlayer());
+        sendAll(eve.getPlayer());
+    }
+    
+    //プロキシがチャンネルを登録するのは参加後のため、登録された時点で改めて送信する
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onRegister(PlayerRegisterChannelEvent eve) {
+        if (WORLD_MESSAGE_TAG.equals(eve.getChannel())) {
+            sendAll(eve.getPlayer());
+        }
     }
     
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onChangeWorld(PlayerChangedWorldEvent eve) {
-        sendPM(eve.getPlayer());
+        sendChange(eve.getPlayer());
+    }
+    
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onLoadWorld(WorldLoadEvent eve) {
+        byte[] mes = encodeWorlds(Collections.singletonList(eve.getWorld()));
+        for (Player p : this.getServer().getOnlinePlayers()) {
+            p.sendPluginMessage(this, WORLD_MESSAGE_TAG, mes);
+        }
+    }
+    
+    private void sendAll(Player p) {
+        p.sendPluginMessage(this, WORLD_MESSAGE_TAG, encodeWorlds(this.getServer().getWorlds()));
+        sendChange(p);
+    }
+    
+    private void sendChange(Player p) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8);
+        bytes.write(PROTOCOL_VERSION);
+        bytes.write(TYPE_CHANGE);
+        writeVarInt(bytes, this.indexOf(p.getWorld()));
+        p.sendPluginMessage(this, WORLD_MESSAGE_TAG, bytes.toByteArray());
+    }
+    
+    private byte[] encodeWorlds(List<World> worlds) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 * worlds.size());
+        bytes.write(PROTOCOL_VERSION);
+        bytes.write(TYPE_WORLDS);
+        writeVarInt(bytes, worlds.size());
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            for (World w : worlds) {
+                UUID uuid = w.getUID();
+                byte[] nameBytes = w.getName().getBytes(UTF_8);
+                writeVarInt(bytes, this.indexOf(w));
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
+                out.writeByte(dimensionOf(w.getEnvironment()));
+                writeVarInt(bytes, nameBytes.length);
+                out.write(nameBytes);
+            }
+        } catch (IOException ex) {
+            throw new AssertionError(ex);
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static byte dimensionOf(World.Environment environment) {
+        switch (environment) {
+            case NORMAL:
+                return DIMENSION_OVERWORLD;
+            case NETHER:
+                return DIMENSION_NETHER;
+            case THE_END:
+                return DIMENSION_END;
+            default:
+                return DIMENSION_UNKNOWN;
+        }
+    }
+    
+    private int indexOf(World w) {
+        Integer index = this.indices.get(w.getUID());
+        if (index == null) {
+            this.indices.put(w.getUID(), index = this.indices.size());
+        }
+        return index;
     }
     
-    private void sendPM(Player p) {
-        UUID uuid = p.getWorld().getUID();
-        byte[] nameBytes = p.getWorld().getName().getBytes(Charset.forName("UTF-8"));
-        ByteBuffer buf = ByteBuffer.allocate(nameBytes.length + 128);
-        buf.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
-        buf.put(nameBytes);
-        byte[] mes = new byte[buf.remaining()];
-        buf.get(mes);
-        p.sendPluginMessage(this, WORLD_MESSAGE_TAG, mes);
+    private static void writeVarInt(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
     }
     
 }
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+/**
+ * Anomaly.
+ * クライアントから送信された移動に見つかった不審な点の種類です。
+ *
+ * @author toyblocks
+ * @see AnomalyDetector
+ */
+public enum Anomaly {
+
+    /**
+     * 水平方向の速度が上限を超えた
+     */
+    HORIZONTAL_SPEED,
+    /**
+     * 上昇する速度が上限を超えた
+     */
+    VERTICAL_SPEED,
+    /**
+     * サーバーからのテレポートなしに大きく移動した
+     */
+    UNEXPECTED_TELEPORT,
+    /**
+     * 地上にいると報告したまま段差を超える高さを移動した
+     */
+    GROUND,;
+
+}
@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * AnomalyDetector.
+ * クライアントから受信した移動を、位置を反映する際にその場で検査します。
+ * 各検査は直前の移動との比較のみによる一定の計算量で、インスタンスを生成しません。
+ * 見つかった不審な点はプレイヤー毎に数えられ、一定周期で別スレッドから
+ * {@link AnomalyEvent}として通知されます。
+ * 既定では検査は行われず、{@link #setEnabled(boolean) }で有効にする必要があります。
+ *
+ * @author toyblocks
+ */
+public final class AnomalyDetector {
+
+    private static final long DEFAULT_PERIOD_MILLIS = 1000L;
+    private static final Anomaly[] ANOMALIES = Anomaly.values();
+    //速度の判定で貯めておける猶予の上限(秒). パケットがまとめて届いても誤検出しない
+    private static final double MAX_ALLOWANCE_SECONDS = 1D;
+    private static final AtomicIntegerFieldUpdater<Tracker> QUEUED = AtomicIntegerFieldUpdater.newUpdater(Tracker.class, "queued");
+    private static final Queue<Tracker> queue = new ConcurrentLinkedQueue<>();
+    private static volatile boolean enabled = false;
+    private static volatile double maxHorizontalSpeed = 20D;
+    private static volatile double maxVerticalSpeed = 10D;
+    private static volatile double teleportDistance = 16D;
+    private static volatile double maxStep = 0.6D;
+    private static Plugin owner;
+    private static ScheduledTask task;
+
+    private AnomalyDetector() {
+    }
+
+    /**
+     * 検査を行うか設定します.
+     * @param enabled {@code true}なら検査する、falseならしない
+     */
+    public static void setEnabled(boolean enabled) {
+        AnomalyDetector.enabled = enabled;
+        LocationDemand.update();
+    }
+
+    /**
+     * 検査を行うか取得します.
+     * @return {@code true}なら検査する、falseならしない
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 水平方向の速度の上限を設定します.
+     * @param blocksPerSecond 1秒あたりのブロック数
+     */
+    public static void setMaxHorizontalSpeed(double blocksPerSecond) {
+        maxHorizontalSpeed = blocksPerSecond;
+    }
+
+    /**
+     * 上昇する速度の上限を設定します.
+     * 落下する速度は検査されません。
+     * @param blocksPerSecond 1秒あたりのブロック数
+     */
+    public static void setMaxVerticalSpeed(double blocksPerSecond) {
+        maxVerticalSpeed = blocksPerSecond;
+    }
+
+    /**
+     * 一度の移動でテレポートとみなす距離を設定します.
+     * @param distance 距離
+     */
+    public static void setTeleportDistance(double distance) {
+        teleportDistance = distance;
+    }
+
+    /**
+     * 地上にいたまま一度に移動できる高さの上限を設定します.
+     * @param height 高さ
+     */
+    public static void setMaxStep(double height) {
+        maxStep = height;
+    }
+
+    static synchronized void start(Plugin plugin) {
+        owner = plugin;
+        task = plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                report();
+            }
+
+        }, DEFAULT_PERIOD_MILLIS, DEFAULT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    static synchronized void report() {
+        Tracker tracker;
+        while ((tracker = queue.poll()) != null) {
+            QUEUED.set(tracker, 0);
+            for (Anomaly anomaly : ANOMALIES) {
+                int count = tracker.counts.getAndSet(anomaly.ordinal(), 0);
+                if (count == 0) {
+                    continue;
+                }
+                try {
+                    ProxyServer.getInstance().getPluginManager().callEvent(new AnomalyEvent(tracker.player, anomaly, count));
+                } catch (RuntimeException ex) {
+                    owner.getLogger().log(Level.WARNING, "Failed to report " + anomaly + " of " + tracker.player, ex);
+                }
+            }
+        }
+    }
+
+    /**
+     * プレイヤー毎の検査の状態.
+     * 検査はそのプレイヤーのイベントループからのみ行われます。
+     */
+    static final class Tracker {
+
+        private final ProxiedPlayer player;
+        private final AtomicIntegerArray counts = new AtomicIntegerArray(ANOMALIES.length);
+        //通知のキューに積まれていれば1
+        volatile int queued = 0;
+        private boolean hasLast = false, lastOnGround;
+        private double lastX, lastY, lastZ;
+        private long lastTime;
+        private double horizontalAllowance, verticalAllowance;
+        private boolean teleporting = false;
+        private double teleportX, teleportY, teleportZ;
+
+        Tracker(ProxiedPlayer player) {
+            this.player = player;
+        }
+
+        void moved(double x, double y, double z, boolean onGround, long time) {
+            if (!enabled) {
+                this.hasLast = false;
+                return;
+            }
+            if (this.teleporting) {
+                //テレポート先に着くまでの移動は、移動前の位置から送信されたものとして通常通り検査する
+                double tx = x - this.teleportX, ty = y - this.teleportY, tz = z - this.teleportZ;
+                if (tx * tx + ty * ty + tz * tz <= 1D) {
+                    this.teleporting = false;
+                    this.hasLast = false;
+                }
+            }
+            if (!this.hasLast) {
+                this.hasLast = true;
+                this.horizontalAllowance = maxHorizontalSpeed * MAX_ALLOWANCE_SECONDS;
+                this.verticalAllowance = maxVerticalSpeed * MAX_ALLOWANCE_SECONDS;
+                this.last(x, y, z, onGround, time);
+                return;
+            }
+            double dx = x - this.lastX, dy = y - this.lastY, dz = z - this.lastZ;
+            double t = teleportDistance;
+            if (dx * dx + dy * dy + dz * dz > t * t) {
+                this.flag(Anomaly.UNEXPECTED_TELEPORT);
+            } else {
+                double elapsed = Math.max(0L, time - this.lastTime) / 1_000_000_000D;
+                double h = maxHorizontalSpeed, v = maxVerticalSpeed;
+                this.horizontalAllowance = Math.min(this.horizontalAllowance + h * elapsed, h * MAX_ALLOWANCE_SECONDS) - Math.sqrt(dx * dx + dz * dz);
+                if (this.horizontalAllowance < 0D) {
+                    this.flag(Anomaly.HORIZONTAL_SPEED);
+                    this.horizontalAllowance = 0D;
+                }
+                this.verticalAllowance = Math.min(this.verticalAllowance + v * elapsed, v * MAX_ALLOWANCE_SECONDS) - Math.max(0D, dy);
+                if (this.verticalAllowance < 0D) {
+                    this.flag(Anomaly.VERTICAL_SPEED);
+                    this.verticalAllowance = 0D;
+                }
+                if (onGround && this.lastOnGround && Math.abs(dy) > maxStep) {
+                    this.flag(Anomaly.GROUND);
+                }
+            }
+            this.last(x, y, z, onGround, time);
+        }
+
+        //サーバーからのテレポート. クライアントが移動先に着いてから検査し直す
+        void teleported(double x, double y, double z) {
+            this.teleporting = true;
+            this.teleportX = x;
+            this.teleportY = y;
+            this.teleportZ = z;
+        }
+
+        //ワールドの変更等で座標が連続しなくなった
+        void reset() {
+            this.hasLast = false;
+        }
+
+        private void last(double x, double y, double z, boolean onGround, long time) {
+            this.lastX = x;
+            this.lastY = y;
+            this.lastZ = z;
+            this.lastOnGround = onGround;
+            this.lastTime = time;
+        }
+
+        private void flag(Anomaly anomaly) {
+            this.counts.incrementAndGet(anomaly.ordinal());
+            if (QUEUED.compareAndSet(this, 0, 1)) {
+                queue.offer(this);
+            }
+        }
+    }
+
+}
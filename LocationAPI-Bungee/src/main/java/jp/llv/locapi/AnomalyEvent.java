@@ -0,0 +1,78 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Event;
+
+/**
+ * AnomalyEvent.
+ * プレイヤーの移動に不審な点が見つかった際のイベントです。
+ * 検出はパケットの受信時に行われますが、イベントは{@link AnomalyDetector}のスレッドから
+ * 一定周期でまとめて呼び出されます。
+ *
+ * @author toyblocks
+ */
+public class AnomalyEvent extends Event {
+
+    private final ProxiedPlayer player;
+    private final Anomaly anomaly;
+    private final int count;
+
+    public AnomalyEvent(ProxiedPlayer player, Anomaly anomaly, int count) {
+        this.player = player;
+        this.anomaly = anomaly;
+        this.count = count;
+    }
+
+    /**
+     * 不審な移動をしたプレイヤーを取得します.
+     * @return プレイヤー
+     */
+    public ProxiedPlayer getPlayer() {
+        return this.player;
+    }
+
+    /**
+     * 見つかった不審な点の種類を取得します.
+     * @return 種類
+     */
+    public Anomaly getAnomaly() {
+        return this.anomaly;
+    }
+
+    /**
+     * 前回の通知以降に見つかった回数を取得します.
+     * @return 回数
+     */
+    public int getCount() {
+        return this.count;
+    }
+
+    @Override
+    public String toString() {
+        return "AnomalyEvent{" + "player=" + player + ", anomaly=" + anomaly + ", count=" + count + '}';
+    }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+/**
+ * CuboidRegion.
+ * 二点を対角とする直方体の領域です。
+ *
+ * @author toyblocks
+ */
+public class CuboidRegion extends Region {
+
+    /**
+     * 二点を対角とする直方体の領域を作成します.
+     * ワールドは一方の頂点のものが用いられます。
+     * @param name 領域の名前
+     * @param corner 一方の頂点
+     * @param other もう一方の頂点
+     */
+    public CuboidRegion(String name, Location corner, Location other) {
+        super(name, corner,
+                Math.min(corner.getX(), other.getX()), Math.min(corner.getY(), other.getY()), Math.min(corner.getZ(), other.getZ()),
+                Math.max(corner.getX(), other.getX()), Math.max(corner.getY(), other.getY()), Math.max(corner.getZ(), other.getZ()));
+    }
+
+    @Override
+    protected boolean containsInBounds(double x, double y, double z) {
+        return true;
+    }
+
+}
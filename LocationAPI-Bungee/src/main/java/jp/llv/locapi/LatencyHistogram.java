@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram.
+ * 処理時間を2の冪毎の区間に数えるヒストグラムです.
+ * 記録はロックを取得せず、スレッド毎に異なる区間の配列へ加算します。
+ * 百分位は区間の上限として求めるため、最大で2倍の誤差があります。
+ *
+ * @author toyblocks
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+
+    //区間iは[2^(i-1), 2^i)ナノ秒. 0は区間0
+    void record(long nanos) {
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(Math.max(0L, nanos));
+        this.buckets.getAndIncrement(StripedCounter.stripe() * BUCKETS + Math.min(bucket, BUCKETS - 1));
+    }
+
+    long[] snapshot() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0, n = this.buckets.length(); i < n; i++) {
+            result[i % BUCKETS] += this.buckets.get(i);
+        }
+        return result;
+    }
+
+    long count() {
+        long result = 0L;
+        for (long c : this.snapshot()) {
+            result += c;
+        }
+        return result;
+    }
+
+    //記録がなければ0を返す
+    long percentile(double p) {
+        long[] counts = this.snapshot();
+        long total = 0L;
+        for (long c : counts) {
+            total += c;
+        }
+        if (total == 0L) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(total * p / 100D);
+        long seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] != 0L) {
+                return i == 0 ? 0L : 1L << Math.min(i, 62);
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    void reset() {
+        for (int i = 0, n = this.buckets.length(); i < n; i++) {
+            this.buckets.set(i, 0L);
+        }
+    }
+
+}
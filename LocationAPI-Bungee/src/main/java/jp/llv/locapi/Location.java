@@ -23,10 +23,10 @@
  */
 package jp.llv.locapi;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 
 /**
@@ -36,7 +36,10 @@ import net.md_5.bungee.api.connection.ProxiedPlayer;
  */
 public class Location implements Cloneable {
 
-    private static final Map<ProxiedPlayer, Location> locations = new HashMap<>();
+    //書き込みはNettyのイベントループから行われるため、セグメント数はワーカースレッド数(既定でコア数の2倍)に合わせる
+    private static final int CONCURRENCY_LEVEL = Runtime.getRuntime().availableProcessors() * 2;
+    private static final ConcurrentMap<UUID, Location> locations = new ConcurrentHashMap<>(256, 0.75F, CONCURRENCY_LEVEL);
+    private static final ConcurrentMap<String, UUID> names = new ConcurrentHashMap<>(256, 0.75F, CONCURRENCY_LEVEL);
 
     /**
      * プレイヤーの現在位置を取得します.
@@ -49,7 +52,37 @@ public class Location implements Cloneable {
      * @return 記録されている場合は現在地、そうでなければ{@code null}
      */
     public static Location of(ProxiedPlayer player) {
-        return locations.get(player);
+        return of(player.getUniqueId());
+    }
+
+    /**
+     * UUIDからプレイヤーの現在位置を取得します.
+     * {@link #of(net.md_5.bungee.api.connection.ProxiedPlayer) }と同様ですが、
+     * {@link ProxiedPlayer}を解決する必要がありません。
+     * このメソッドはロックを取得せず、どのスレッドからでも呼び出せます。
+     * 接続していないプレイヤーについては、切断時または前回の起動時に{@link LocationSnapshot}が保存した
+     * 最後の位置を返します。この位置は{@link #isStale()}が{@code true}を返します。
+     * {@link LocationDemand#setPassive(java.lang.String, boolean)}で指定されたサーバーでも位置は常に最新ですが、
+     * 索引や領域の判定への反映は、処理を止めていた後の最初の呼び出しから非同期に行われます。
+     * @param uuid 取得したいプレイヤーのUUID
+     * @return 記録されている場合は現在地または最後の位置、そうでなければ{@code null}
+     */
+    public static Location of(UUID uuid) {
+        LocationDemand.queried();
+        Location result = locations.get(uuid);
+        return result != null ? result : LocationSnapshot.get(uuid);
+    }
+
+    /**
+     * 名前からプレイヤーの現在位置を取得します.
+     * 名前の大文字小文字は区別されません。
+     * @param name 取得したいプレイヤーの名前
+     * @return 記録されている場合は現在地、そうでなければ{@code null}
+     * @see #of(java.util.UUID)
+     */
+    public static Location of(String name) {
+        UUID uuid = names.get(name.toLowerCase(Locale.ROOT));
+        return uuid == null ? null : of(uuid);
     }
 
     /**
@@ -76,7 +109,7 @@ public class Location implements Cloneable {
      * @return 対応する位置
      */
     public static Location of(double x, double y, double z, float yaw, float pitch, boolean onGround) {
-        return new Location().update(x, y, z, onGround).update(yaw, pitch);
+        return new Location().update(x, y, z, yaw, pitch, onGround);
     }
 
     /**
@@ -91,22 +124,90 @@ public class Location implements Cloneable {
      * @param worldName ワールド名
      * @param worldUUID ワールドのUUID
      * @return 対応する位置
+     * @see World#of(java.util.UUID, java.lang.String)
      */
     public static Location of(double x, double y, double z, float yaw, float pitch, boolean onGround, String worldName, UUID worldUUID) {
-        return of(x, y, z, yaw, pitch, onGround).update(worldUUID, worldName);
+        return of(x, y, z, yaw, pitch, onGround, World.of(worldUUID, worldName));
+    }
+
+    /**
+     * パラメーターに対応する位置を返却します.
+     * @param x x座標
+     * @param y y座標
+     * @param z z座標
+     * @param yaw 水平角度
+     * @param pitch 垂直角度
+     * @param onGround 地面の上かどうか
+     * @param world ワールド
+     * @return 対応する位置
+     */
+    public static Location of(double x, double y, double z, float yaw, float pitch, boolean onGround, World world) {
+        return of(x, y, z, yaw, pitch, onGround).update(world);
+    }
+
+    //プレイヤーの位置として復元する. 登録はしない
+    static Location restore(UUID uuid, double x, double y, double z, float yaw, float pitch, boolean onGround, World world) {
+        //まだ公開されていないため、版を進めずに書き込む
+        Location result = new Location(uuid);
+        result.x = x;
+        result.y = y;
+        result.z = z;
+        result.yaw = yaw;
+        result.pitch = pitch;
+        result.onGround = onGround;
+        result.world = world;
+        result.stale = true;
+        return result;
+    }
+
+    //他のプロキシに接続しているプレイヤーの位置. 登録はしない
+    static Location remote(UUID uuid) {
+        return new Location(uuid);
     }
 
     protected static Location getOrCreateOf(ProxiedPlayer player) {
-        Location result = Location.of(player);
+        UUID uuid = player.getUniqueId();
+        Location result = locations.get(uuid);
         if (result != null) {
             return result;
         }
-        locations.put(player, result = new Location());
-        return result;
+        Location created = new Location(uuid);
+        result = locations.putIfAbsent(uuid, created);
+        if (result != null) {
+            return result;
+        }
+        created.slot = LocationStore.allocate(created);
+        MovementJournal.bind(created.slot, uuid);
+        Location restored = LocationSnapshot.take(uuid);
+        if (restored != null) {
+            restored.copyTo(created).setStale(true);
+        }
+        names.put(player.getName().toLowerCase(Locale.ROOT), uuid);
+        return created;
     }
     
+    //利用者による問い合わせとして数えずに、登録されている位置を取得する
+    static Location lookup(UUID uuid) {
+        return locations.get(uuid);
+    }
+
+    static boolean isOnline(UUID uuid) {
+        return locations.containsKey(uuid);
+    }
+
     protected static void remove(ProxiedPlayer player) {
-        locations.remove(player);
+        UUID uuid = player.getUniqueId();
+        Location removed = locations.remove(uuid);
+        names.remove(player.getName().toLowerCase(Locale.ROOT), uuid);
+        if (removed != null) {
+            RegionManager.leaveAll(player, removed, null);
+            SpatialIndex.remove(removed);
+            //切断イベントはそのプレイヤーのイベントループで呼ばれるため、この後にスロットへ書き込まれることはない
+            removed.detach();
+            LocationSnapshot.retain(uuid, removed);
+            Replication.departed(uuid);
+            MovementDispatcher.offer(removed);
+        }
     }
 
     /**
@@ -133,6 +234,14 @@ public class Location implements Cloneable {
             this.id = id;
         }
 
+        /**
+         * ディメンションIDを取得します.
+         * @return ディメンションID
+         */
+        public int getId() {
+            return this.id;
+        }
+
         /**
          * IDからディメンションを取得します.
          * @param id ディメンションID
@@ -148,14 +257,129 @@ public class Location implements Cloneable {
         }
     }
 
-    private double x = Double.NaN, y = Double.NaN, z = Double.NaN;
-    private float pitch = -1, yaw = -1;
-    private boolean onGround = false;
-    private Dimension dimension = null;
-    private String worldName = null;
-    private UUID worldUUID = null;
+    //スロットを持たない位置の値. 各フィールドはversionを用いたシーケンスロックで一貫性を検証する
+    private volatile long version = 0;
+    private volatile double x = Double.NaN, y = Double.NaN, z = Double.NaN;
+    private volatile float pitch = -1, yaw = -1;
+    private volatile boolean onGround = false;
+    //ワールドは正規化されており、複数の位置で共有される
+    private volatile World world = World.UNKNOWN;
+    //前回の起動時から復元され、まだパケットで更新されていない
+    private volatile boolean stale = false;
+    //接続中のプレイヤーの位置であれば、値を保持するLocationStoreのスロット. そうでなければ-1
+    private volatile int slot = -1;
+    private final UUID playerUUID;
+    //SpatialIndexが管理する、現在登録されているセル
+    volatile SpatialIndex.Cell cell = null;
+    //RegionManagerが判定した、現在いる領域
+    volatile Region[] regions = RegionManager.NONE;
+    //MovementDispatcherのキューに積まれていれば1
+    volatile int queued = 0;
+    //LocationHistoryが記録している履歴
+    volatile LocationHistory history = null;
 
     private Location() {
+        this(null);
+    }
+
+    private Location(UUID playerUUID) {
+        this.playerUUID = playerUUID;
+    }
+
+    //値をスロットから自身のフィールドへ移し、スロットを解放する
+    private void detach() {
+        int s = this.slot;
+        if (s < 0) {
+            return;
+        }
+        LocationStore.Page page = LocationStore.page(s);
+        long v;
+        do {
+            v = page.getVersion(s);
+            this.x = page.getX(s);
+            this.y = page.getY(s);
+            this.z = page.getZ(s);
+            this.yaw = page.getYaw(s);
+            this.pitch = page.getPitch(s);
+            this.onGround = page.isOnGround(s);
+            this.world = page.getWorld(s);
+            this.stale = page.isStale(s);
+        } while ((v & 1L) != 0 || page.getVersion(s) != v);
+        //切り離す前に読み始めた読み込みが検証に失敗するよう、スロットのバージョンより進める
+        this.version = v + 2;
+        this.slot = -1;
+        LocationStore.release(s);
+    }
+
+    int getSlot() {
+        return this.slot;
+    }
+
+    /**
+     * この位置を持つプレイヤーのUUIDを取得します.
+     * @return {@link #of(net.md_5.bungee.api.connection.ProxiedPlayer) }等で取得したプレイヤーの位置ならそのUUID, そうでないなら{@code null}
+     */
+    public UUID getPlayerUUID() {
+        return this.playerUUID;
+    }
+
+    /**
+     * 位置のバージョンを取得します.
+     * 位置が更新される度にバージョンは増加し、更新中は奇数になります。
+     * 各getterと{@link #validate(long) }を組み合わせることで、
+     * インスタンスを生成することなく一貫した値を読み取ることができます。
+     * <pre>{@code
+     * long version;
+     * double x, z;
+     * do {
+     *     version = location.getVersion();
+     *     x = location.getX();
+     *     z = location.getZ();
+     * } while (!location.validate(version));
+     * }</pre>
+     * @return 現在のバージョン
+     * @see #validate(long)
+     */
+    public long getVersion() {
+        int s = this.slot;
+        return s < 0 ? this.version : LocationStore.page(s).getVersion(s);
+    }
+
+    /**
+     * バージョン取得後に位置が更新されていないか検証します.
+     * @param version {@link #getVersion() }で取得したバージョン
+     * @return {@code true}ならその間に読み取った値は一貫している、falseなら読み直す必要がある
+     * @see #getVersion()
+     */
+    public boolean validate(long version) {
+        return (version & 1L) == 0 && this.getVersion() == version;
+    }
+
+    /**
+     * 一貫した状態の値を他の位置へ書き込みます.
+     * パケットの受信によって更新中の位置から読み取っても、
+     * 異なるパケットの値が混ざることはありません。
+     * 書き込み先を使いまわすことで、{@link #clone() }と異なり新たなインスタンスを生成しません。
+     * @param dst 書き込み先
+     * @return 書き込み先
+     */
+    public Location copyTo(Location dst) {
+        long v;
+        double cx, cy, cz;
+        float cYaw, cPitch;
+        boolean cOnGround;
+        World cWorld;
+        do {
+            v = this.getVersion();
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+            cYaw = this.getYaw();
+            cPitch = this.getPitch();
+            cOnGround = this.isOnGround();
+            cWorld = this.getWorld();
+        } while (!this.validate(v));
+        return dst.update(cx, cy, cz, cYaw, cPitch, cOnGround, cWorld);
     }
 
     /**
@@ -163,7 +387,8 @@ public class Location implements Cloneable {
      * @return x座標
      */
     public double getX() {
-        return this.x;
+        int s = this.slot;
+        return s < 0 ? this.x : LocationStore.page(s).getX(s);
     }
 
     /**
@@ -171,7 +396,7 @@ public class Location implements Cloneable {
      * @return x座標
      */
     public long getBlockX() {
-        return (long) Math.floor(x);
+        return (long) Math.floor(this.getX());
     }
 
     /**
@@ -179,7 +404,8 @@ public class Location implements Cloneable {
      * @return y座標
      */
     public double getY() {
-        return this.y;
+        int s = this.slot;
+        return s < 0 ? this.y : LocationStore.page(s).getY(s);
     }
 
     /**
@@ -187,7 +413,7 @@ public class Location implements Cloneable {
      * @return y座標
      */
     public long getBlockY() {
-        return (long) Math.floor(y);
+        return (long) Math.floor(this.getY());
     }
 
     /**
@@ -195,7 +421,8 @@ public class Location implements Cloneable {
      * @return z座標
      */
     public double getZ() {
-        return this.z;
+        int s = this.slot;
+        return s < 0 ? this.z : LocationStore.page(s).getZ(s);
     }
 
     /**
@@ -203,7 +430,33 @@ public class Location implements Cloneable {
      * @return z座標
      */
     public long getBlockZ() {
-        return (long) Math.floor(z);
+        return (long) Math.floor(this.getZ());
+    }
+
+    /**
+     * 位置が古い可能性があるか取得します.
+     * 前回の起動時から復元された位置は、そのプレイヤーの移動をクライアントから受信するまで古いままです。
+     * @return {@code true}なら最新の移動が反映されていない、falseならそうでない
+     * @see LocationSnapshot
+     */
+    public boolean isStale() {
+        int s = this.slot;
+        return s < 0 ? this.stale : LocationStore.page(s).isStale(s);
+    }
+
+    //復元された位置であることを記録する
+    void setStale(boolean stale) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setStale(s, stale);
+            page.end(s, v);
+            return;
+        }
+        this.version++;
+        this.stale = stale;
+        this.version++;
     }
 
     /**
@@ -211,14 +464,91 @@ public class Location implements Cloneable {
      * @return {@code true}なら地上にある、falseならそうでない
      */
     public boolean isOnGround() {
-        return this.onGround;
+        int s = this.slot;
+        return s < 0 ? this.onGround : LocationStore.page(s).isOnGround(s);
     }
 
     protected Location update(double x, double y, double z, boolean onGround) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setPosition(s, x, y, z);
+            page.setOnGround(s, onGround);
+            page.setStale(s, false);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.onGround = onGround;
+        this.stale = false;
+        this.version++;
+        return this;
+    }
+
+    protected Location update(double x, double y, double z, float yaw, float pitch, boolean onGround) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setPosition(s, x, y, z);
+            page.setAngles(s, yaw, pitch);
+            page.setOnGround(s, onGround);
+            page.setStale(s, false);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
         this.x = x;
         this.y = y;
         this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
         this.onGround = onGround;
+        this.stale = false;
+        this.version++;
+        return this;
+    }
+
+    protected Location update(double x, double y, double z, float yaw, float pitch, boolean onGround, World world) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setPosition(s, x, y, z);
+            page.setAngles(s, yaw, pitch);
+            page.setOnGround(s, onGround);
+            page.setWorld(s, world);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.onGround = onGround;
+        this.world = world;
+        this.version++;
+        return this;
+    }
+
+    protected Location update(boolean onGround) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setOnGround(s, onGround);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
+        this.onGround = onGround;
+        this.version++;
         return this;
     }
 
@@ -227,7 +557,8 @@ public class Location implements Cloneable {
      * @return 記録されていれば水平角度, そうでないなら-1
      */
     public float getYaw() {
-        return this.yaw;
+        int s = this.slot;
+        return s < 0 ? this.yaw : LocationStore.page(s).getYaw(s);
     }
 
     /**
@@ -235,12 +566,41 @@ public class Location implements Cloneable {
      * @return 記録されていれば水平角度, そうでないなら-1
      */
     public float getPitch() {
-        return this.pitch;
+        int s = this.slot;
+        return s < 0 ? this.pitch : LocationStore.page(s).getPitch(s);
     }
 
     protected Location update(float yaw, float pitch) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setAngles(s, yaw, pitch);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.version++;
+        return this;
+    }
+
+    protected Location update(float yaw, float pitch, boolean onGround) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setAngles(s, yaw, pitch);
+            page.setOnGround(s, onGround);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
         this.yaw = yaw;
         this.pitch = pitch;
+        this.onGround = onGround;
+        this.version++;
         return this;
     }
 
@@ -249,11 +609,26 @@ public class Location implements Cloneable {
      * @return 記録されているならディメンション, そうでないなら{@code null}
      */
     public Dimension getDimension() {
-        return this.dimension;
+        return this.getWorld().getDimension();
     }
 
+    //同じディメンションへのリスポーンではワールドは変わらない
     protected void update(Dimension dimension) {
-        this.dimension = dimension;
+        if (this.getWorld().getDimension() == dimension) {
+            return;
+        }
+        this.update(World.of(dimension));
+    }
+
+    /**
+     * 位置するワールドを取得します.
+     * LocationAPI-Bukkitプラグインからワールドが通知されていない場合は、
+     * ディメンション毎に共通のワールドとなります。
+     * @return 位置するワールド
+     */
+    public World getWorld() {
+        int s = this.slot;
+        return s < 0 ? this.world : LocationStore.page(s).getWorld(s);
     }
 
     /**
@@ -264,7 +639,7 @@ public class Location implements Cloneable {
      * @return 記録されているならワールドのUUID, そうでないなら{@code null}
      */
     public UUID getWorldUUID() {
-        return this.worldUUID;
+        return this.getWorld().getUUID();
     }
 
     /**
@@ -275,22 +650,180 @@ public class Location implements Cloneable {
      * @return 記録されているならワールドの名前, そうでないなら{@code null}
      */
     public String getWorldName() {
-        return this.worldName;
+        return this.getWorld().getName();
     }
 
-    protected Location update(UUID uuid, String name) {
-        this.worldName = name;
-        this.worldUUID = uuid;
+    protected Location update(World world) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.setWorld(s, world);
+            page.end(s, v);
+            return this;
+        }
+        this.version++;
+        this.world = world;
+        this.version++;
         return this;
     }
 
+    //クライアントから受信した位置を標本として、速度と加速度の推定を更新する
+    void sample(long time) {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.sample(s, time);
+            page.end(s, v);
+        }
+    }
+
+    //テレポート等の不連続な移動の後は推定をやり直す
+    void clearMotion() {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.Page page = LocationStore.page(s);
+            long v = page.begin(s);
+            page.clearMotion(s);
+            page.end(s, v);
+        }
+    }
+
+    //閾値を超えて変化していれば変化の版を進める
+    void touch() {
+        int s = this.slot;
+        if (s >= 0) {
+            LocationStore.page(s).touch(s);
+        }
+    }
+
+    /**
+     * 位置が最後に意味のある変化をした時の版を取得します.
+     * 版は{@link LocationQuery#setChangeThreshold(double, float) }で設定された閾値を超えて
+     * 位置や視点が変化したとき、またはワールドが変わったときにのみ進みます。
+     * 前回取得した版と比較することで、動いていないプレイヤーに対する処理を省略できます。
+     * @return 変化の版. 接続中のプレイヤーの位置でなければ0
+     * @see LocationQuery#getChangedSince(long, java.util.Collection)
+     */
+    public long getChangeVersion() {
+        int s = this.slot;
+        return s < 0 ? 0L : LocationStore.page(s).getChange(s);
+    }
+
+    /**
+     * 推定された速度を取得します.
+     * 速度はクライアントから移動を受信する度に指数平滑によって更新されます。
+     * テレポートやワールドの変更の後は0から推定し直されます。
+     * @return 1秒あたりのブロック数を単位とする速度をxyz値とし、その他の値は自身と同じ新たな位置
+     * @see #getVelocity(jp.llv.locapi.Location)
+     */
+    public Location getVelocity() {
+        return this.getVelocity(new Location());
+    }
+
+    /**
+     * 推定された速度を他の位置へ書き込みます.
+     * @param dst 書き込み先
+     * @return 速度をxyz値とし、その他の値は自身と同じ{@code dst}.
+     * 接続中のプレイヤーの位置でなければxyz値は0
+     * @see #getVelocity()
+     */
+    public Location getVelocity(Location dst) {
+        return this.motionTo(dst, false, 0L);
+    }
+
+    /**
+     * 推定された加速度を取得します.
+     * @return 1秒毎秒あたりのブロック数を単位とする加速度をxyz値とし、その他の値は自身と同じ新たな位置
+     * @see #getVelocity()
+     */
+    public Location getAcceleration() {
+        return this.getAcceleration(new Location());
+    }
+
+    /**
+     * 推定された加速度を他の位置へ書き込みます.
+     * @param dst 書き込み先
+     * @return 加速度をxyz値とし、その他の値は自身と同じ{@code dst}.
+     * 接続中のプレイヤーの位置でなければxyz値は0
+     * @see #getAcceleration()
+     */
+    public Location getAcceleration(Location dst) {
+        return this.motionTo(dst, true, 0L);
+    }
+
+    /**
+     * 推定された速度と加速度から、一定時間後の位置を予測します.
+     * @param nanosAhead 予測する時間(ナノ秒)
+     * @return 予測された位置
+     * @see #predict(long, jp.llv.locapi.Location)
+     */
+    public Location predict(long nanosAhead) {
+        return this.predict(nanosAhead, new Location());
+    }
+
+    /**
+     * 推定された速度と加速度から、一定時間後の位置を予測して他の位置へ書き込みます.
+     * 予測は現在の座標からの等加速度運動によるものです。
+     * @param nanosAhead 予測する時間(ナノ秒)
+     * @param dst 書き込み先
+     * @return 予測された位置を書き込んだ{@code dst}.
+     * 接続中のプレイヤーの位置でなければ現在の位置
+     */
+    public Location predict(long nanosAhead, Location dst) {
+        return this.motionTo(dst, false, nanosAhead);
+    }
+
+    //ahead != 0 なら予測、そうでなければ速度または加速度
+    private Location motionTo(Location dst, boolean acceleration, long ahead) {
+        long v;
+        double cx, cy, cz, vx, vy, vz, ax, ay, az;
+        float cYaw, cPitch;
+        boolean cOnGround;
+        World cWorld;
+        do {
+            v = this.getVersion();
+            int s = this.slot;
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+            cYaw = this.getYaw();
+            cPitch = this.getPitch();
+            cOnGround = this.isOnGround();
+            cWorld = this.getWorld();
+            if (s < 0) {
+                vx = vy = vz = ax = ay = az = 0D;
+            } else {
+                LocationStore.Page page = LocationStore.page(s);
+                vx = page.getVelocityX(s);
+                vy = page.getVelocityY(s);
+                vz = page.getVelocityZ(s);
+                ax = page.getAccelerationX(s);
+                ay = page.getAccelerationY(s);
+                az = page.getAccelerationZ(s);
+            }
+        } while (!this.validate(v));
+        if (ahead != 0L) {
+            double t = ahead / 1_000_000_000D;
+            double h = t * t / 2D;
+            return dst.update(cx + vx * t + ax * h, cy + vy * t + ay * h, cz + vz * t + az * h, cYaw, cPitch, cOnGround, cWorld);
+        } else if (acceleration) {
+            return dst.update(ax, ay, az, cYaw, cPitch, cOnGround, cWorld);
+        } else {
+            return dst.update(vx, vy, vz, cYaw, cPitch, cOnGround, cWorld);
+        }
+    }
+
     /**
      * 他の位置のxyz値との和を座標とする新たな位置を取得します.
      * @param other もう一方
      * @return 自身の値をxyz値のみ更新した新たな位置
      */
     public Location add(Location other) {
-        return new Location().update(this.x + other.x, this.y + other.y, this.z + other.z, this.onGround).update(this.yaw, this.pitch).update(this.worldUUID, this.worldName);
+        Location result = this.copyTo(new Location());
+        Vector o = other.getPosition(new Vector());
+        return result.update(result.getX() + o.getX(), result.getY() + o.getY(), result.getZ() + o.getZ(), result.isOnGround());
     }
 
     /**
@@ -299,16 +832,128 @@ public class Location implements Cloneable {
      * @return 自身の値をxyz値のみ更新した新たな位置
      */
     public Location subtract(Location other) {
-        return new Location().update(this.x - other.x, this.y - other.y, this.z - other.z, this.onGround).update(this.yaw, this.pitch).update(this.worldUUID, this.worldName);
+        Location result = this.copyTo(new Location());
+        Vector o = other.getPosition(new Vector());
+        return result.update(result.getX() - o.getX(), result.getY() - o.getY(), result.getZ() - o.getZ(), result.isOnGround());
     }
     
     /**
      * xyz値をを一定倍した新たな位置を取得します.
+     * {@link #clone() }と同様に、プレイヤーのUUIDを引き継ぎます。
      * @param m 倍率
      * @return 自身の値をxyz値のみ更新した新たな位置
      */
     public Location multiply(double m) {
-        return this.clone().update(this.x*m, this.y*m, this.z*m, this.onGround);
+        Location result = this.clone();
+        return result.update(result.getX() * m, result.getY() * m, result.getZ() * m, result.isOnGround());
+    }
+
+    /**
+     * 一貫した状態のxyz値をベクトルへ書き込みます.
+     * @param dst 書き込み先
+     * @return 書き込み先
+     */
+    public Vector getPosition(Vector dst) {
+        long v;
+        double cx, cy, cz;
+        do {
+            v = this.getVersion();
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+        } while (!this.validate(v));
+        return dst.set(cx, cy, cz);
+    }
+
+    /**
+     * 視点の向きの単位ベクトルをベクトルへ書き込みます.
+     * @param dst 書き込み先
+     * @return 書き込み先
+     * @see Vector#setDirection(float, float)
+     */
+    public Vector getDirection(Vector dst) {
+        long v;
+        float cYaw, cPitch;
+        do {
+            v = this.getVersion();
+            cYaw = this.getYaw();
+            cPitch = this.getPitch();
+        } while (!this.validate(v));
+        return dst.setDirection(cYaw, cPitch);
+    }
+
+    /**
+     * 他の位置のxyz値との和をベクトルへ書き込みます.
+     * {@link #add(jp.llv.locapi.Location) }と異なり新たなインスタンスを生成しません。
+     * @param other もう一方
+     * @param dst 書き込み先
+     * @return 書き込み先
+     */
+    public Vector addInto(Location other, Vector dst) {
+        other.getPosition(dst);
+        long v;
+        double cx, cy, cz;
+        do {
+            v = this.getVersion();
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+        } while (!this.validate(v));
+        return dst.add(cx, cy, cz);
+    }
+
+    /**
+     * 他の位置のxyz値との差をベクトルへ書き込みます.
+     * {@link #subtract(jp.llv.locapi.Location) }と異なり新たなインスタンスを生成しません。
+     * @param other もう一方
+     * @param dst 書き込み先
+     * @return 書き込み先
+     */
+    public Vector subtractInto(Location other, Vector dst) {
+        other.getPosition(dst);
+        long v;
+        double cx, cy, cz;
+        do {
+            v = this.getVersion();
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+        } while (!this.validate(v));
+        return dst.set(cx - dst.getX(), cy - dst.getY(), cz - dst.getZ());
+    }
+
+    /**
+     * xyz値を一定倍した値をベクトルへ書き込みます.
+     * {@link #multiply(double) }と異なり新たなインスタンスを生成しません。
+     * @param m 倍率
+     * @param dst 書き込み先
+     * @return 書き込み先
+     */
+    public Vector multiplyInto(double m, Vector dst) {
+        return this.getPosition(dst).scaleInPlace(m);
+    }
+
+    /**
+     * 他の位置とのxyz値の内積を取得します.
+     * @param other もう一方
+     * @return 内積
+     */
+    public double dot(Location other) {
+        long v;
+        double ox, oy, oz, cx, cy, cz;
+        do {
+            v = other.getVersion();
+            ox = other.getX();
+            oy = other.getY();
+            oz = other.getZ();
+        } while (!other.validate(v));
+        do {
+            v = this.getVersion();
+            cx = this.getX();
+            cy = this.getY();
+            cz = this.getZ();
+        } while (!this.validate(v));
+        return cx * ox + cy * oy + cz * oz;
     }
 
     /**
@@ -327,7 +972,8 @@ public class Location implements Cloneable {
      * @see #length() 
      */
     public double lengthSquared() {
-        return Math.pow(this.x, 2D) + Math.pow(this.y, 2D) + Math.pow(this.z, 2D);
+        double cx = this.getX(), cy = this.getY(), cz = this.getZ();
+        return cx * cx + cy * cy + cz * cz;
     }
 
     /**
@@ -348,20 +994,34 @@ public class Location implements Cloneable {
      * @see #distance(jp.llv.locapi.Location) 
      */
     public double distanceSquared(Location o) {
-        return Math.pow(this.x - o.x, 2D) + Math.pow(this.y - o.y, 2D) + Math.pow(this.z - o.z, 2D);
+        double dx = this.getX() - o.getX(), dy = this.getY() - o.getY(), dz = this.getZ() - o.getZ();
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * 点との距離の二乗を取得します.
+     * @param point 点
+     * @return 距離の二乗
+     */
+    public double distanceSquared(Vector point) {
+        double dx = this.getX() - point.getX(), dy = this.getY() - point.getY(), dz = this.getZ() - point.getZ();
+        return dx * dx + dy * dy + dz * dz;
     }
 
     /**
-     * xyz値とディメンションからハッシュ値を取得します
+     * xyz値とワールドからハッシュ値を取得します
      * @return ハッシュ値
      */
     @Override
     public int hashCode() {
+        long bx = Double.doubleToLongBits(this.getX());
+        long by = Double.doubleToLongBits(this.getY());
+        long bz = Double.doubleToLongBits(this.getZ());
         int hash = 3;
-        hash = 59 * hash + (int) (Double.doubleToLongBits(this.x) ^ (Double.doubleToLongBits(this.x) >>> 32));
-        hash = 59 * hash + (int) (Double.doubleToLongBits(this.y) ^ (Double.doubleToLongBits(this.y) >>> 32));
-        hash = 59 * hash + (int) (Double.doubleToLongBits(this.z) ^ (Double.doubleToLongBits(this.z) >>> 32));
-        hash = 59 * hash + Objects.hashCode(this.dimension);
+        hash = 59 * hash + (int) (bx ^ (bx >>> 32));
+        hash = 59 * hash + (int) (by ^ (by >>> 32));
+        hash = 59 * hash + (int) (bz ^ (bz >>> 32));
+        hash = 59 * hash + this.getWorld().hashCode();
         return hash;
     }
 
@@ -379,22 +1039,22 @@ public class Location implements Cloneable {
             return false;
         }
         final Location other = (Location) obj;
-        if (Double.doubleToLongBits(this.x) != Double.doubleToLongBits(other.x)) {
+        if (Double.doubleToLongBits(this.getX()) != Double.doubleToLongBits(other.getX())) {
             return false;
         }
-        if (Double.doubleToLongBits(this.y) != Double.doubleToLongBits(other.y)) {
+        if (Double.doubleToLongBits(this.getY()) != Double.doubleToLongBits(other.getY())) {
             return false;
         }
-        if (Float.floatToIntBits(this.pitch) != Float.floatToIntBits(other.pitch)) {
+        if (Double.doubleToLongBits(this.getZ()) != Double.doubleToLongBits(other.getZ())) {
             return false;
         }
-        if (Float.floatToIntBits(this.yaw) != Float.floatToIntBits(other.yaw)) {
+        if (Float.floatToIntBits(this.getPitch()) != Float.floatToIntBits(other.getPitch())) {
             return false;
         }
-        if (this.dimension != other.dimension) {
+        if (Float.floatToIntBits(this.getYaw()) != Float.floatToIntBits(other.getYaw())) {
             return false;
         }
-        return Objects.equals(this.worldUUID, other.worldUUID);
+        return this.getWorld() == other.getWorld();
     }
 
     /**
@@ -404,17 +1064,26 @@ public class Location implements Cloneable {
      */
     @Override
     public String toString() {
-        return "Location{" + "x=" + x + ", y=" + y + ", z=" + z + ", pitch=" + pitch + ", yaw=" + yaw + ", onGround=" + onGround + ", dimension=" + dimension + ", worldName=" + worldName + ", worldUUID=" + worldUUID + '}';
+        Location c = this.clone();
+        return "Location{" + "x=" + c.x + ", y=" + c.y + ", z=" + c.z + ", pitch=" + c.pitch + ", yaw=" + c.yaw + ", onGround=" + c.onGround + ", world=" + c.world + '}';
     }
 
     /**
      * 同一の値を持つ異なるインスタンスを生成します
      * @return この位置のクローン
+     * @see #copyTo(jp.llv.locapi.Location)
      */
     @Override
     public Location clone() {
         try {
-            return (Location) super.clone();
+            Location result = (Location) super.clone();
+            result.version = 0;
+            result.slot = -1;
+            result.cell = null;
+            result.regions = RegionManager.NONE;
+            result.queued = 0;
+            result.history = null;
+            return this.copyTo(result);
         } catch (CloneNotSupportedException ex) {
             throw new Error(ex);
         }
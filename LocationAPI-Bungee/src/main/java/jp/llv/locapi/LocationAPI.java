@@ -23,15 +23,15 @@
  */
 package jp.llv.locapi;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-import java.util.logging.Level;
+import java.nio.charset.StandardCharsets;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.event.PlayerDisconnectEvent;
 import net.md_5.bungee.api.event.PostLoginEvent;
+import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.api.plugin.Plugin;
 import net.md_5.bungee.event.EventHandler;
-import net.md_5.bungee.protocol.Protocol;
+import net.md_5.bungee.protocol.packet.PluginMessage;
 
 /**
  * LocationAPI
@@ -40,6 +40,7 @@ import net.md_5.bungee.protocol.Protocol;
 public class LocationAPI implements Listener {
     
     private static Plugin owner;
+    private static LocationAPI listener;
     
     private LocationAPI(){}
     
@@ -54,17 +55,40 @@ public class LocationAPI implements Listener {
             return false;
         }
         owner = p;
-        owner.getProxy().getPluginManager().registerListener(owner, new LocationAPI());
-        
-        try {//Bungeecordに0x04 PlayerPositionのPacketがないせいで勝手に追加することに
-            Method mRegisterPacket = Protocol.GAME.TO_SERVER.getClass().getDeclaredMethod("registerPacket", int.class, Class.class);
-            mRegisterPacket.setAccessible(true);
-            mRegisterPacket.invoke(Protocol.GAME.TO_SERVER, 0x04, PlayerPosition.class);
-            mRegisterPacket.invoke(Protocol.GAME.TO_SERVER, 0x05, PlayerLook.class);
-            mRegisterPacket.invoke(Protocol.GAME.TO_CLIENT, 0x08, PlayerPositionAndLook.class);
-        } catch (NoSuchMethodException | SecurityException | IllegalAccessException | IllegalArgumentException | InvocationTargetException ex) {
-            p.getLogger().log(Level.WARNING, "Failed to register custom packet", ex);
+        listener = new LocationAPI();
+        owner.getProxy().getPluginManager().registerListener(owner, listener);
+        MovementDispatcher.start(owner);
+        AnomalyDetector.start(owner);
+        LocationSnapshot.start(owner);
+        Metrics.start(owner);
+        LocationDemand.start(owner);
+        //移動に関するパケットはBungeecordに登録せず、PacketHandlerがバージョン毎の表に従ってバッファから直接読み取る
+        return true;
+    }
+    
+    /**
+     * パケットのハンドルを終了します.
+     * {@link #init(net.md_5.bungee.api.plugin.Plugin) }に渡したプラグインの{@link Plugin#onDisable() }から呼び出してください。
+     * 接続中のプレイヤーの位置はこの時点で保存され、{@link MovementJournal}の記録と{@link Replication}も終了します
+     * @return trueならば終了した、falseなら開始されていなかった
+     */
+    public static boolean shutdown() {
+        if (owner == null) {
+            return false;
+        }
+        owner.getProxy().getPluginManager().unregisterListener(listener);
+        for (ProxiedPlayer player : owner.getProxy().getPlayers()) {
+            PacketHandler.unhandle(player);
         }
+        Replication.closeAll();
+        MovementJournal.close();
+        MovementDispatcher.stop();
+        AnomalyDetector.stop();
+        LocationDemand.stop();
+        Metrics.stop();
+        LocationSnapshot.stop();
+        listener = null;
+        owner = null;
         return true;
     }
     
@@ -73,9 +97,17 @@ public class LocationAPI implements Listener {
         PacketHandler.handle(eve.getPlayer());
     }
     
+    //バックエンドのBukkitはクライアントが登録したチャンネルにしか送信しないため、代わりに登録する
+    @EventHandler
+    public void onConnected(ServerConnectedEvent eve) {
+        PacketHandler.connected(eve.getPlayer(), eve.getServer().getInfo().getName());
+        eve.getServer().unsafe().sendPacket(new PluginMessage("REGISTER", PacketHandler.WORLD_MESSAGE_TAG.getBytes(StandardCharsets.UTF_8), false));
+    }
+    
     @EventHandler
     public void onQuit(PlayerDisconnectEvent eve) {
         PacketHandler.unhandle(eve.getPlayer());
+        Location.remove(eve.getPlayer());
     }
     
 }
@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * LocationDemand.
+ * プレイヤーの移動を処理する必要があるかを管理します.
+ * 通常は全てのサーバーで移動を処理します。{@link #setPassive(java.lang.String, boolean)}で指定されたサーバーでは、
+ * 位置を必要とする利用者がいない間、{@link PacketHandler}は位置を更新するだけで、
+ * 索引や領域の判定、履歴の記録、リスナへの通知などを行いません。
+ * 利用者が現れると、最新の位置がそれぞれのプレイヤーのイベントループで反映され、通常の処理に戻ります。
+ * 反映は非同期に行われるため、処理を止めていた後の最初の問い合わせでは、索引や領域の判定が古いことがあります。
+ * <p>
+ * 次のいずれかがあれば、指定されたサーバーでも移動を処理します。
+ * <ul>
+ * <li>{@link MovementDispatcher}のリスナ</li>
+ * <li>{@link RegionManager}に登録された領域</li>
+ * <li>{@link LocationHistory}の記録</li>
+ * <li>{@link MovementJournal}の記録</li>
+ * <li>{@link Replication}</li>
+ * <li>{@link AnomalyDetector}の検査</li>
+ * <li>{@link #acquire()}で取得された要求</li>
+ * <li>直近の{@link Location#of(java.util.UUID)}, {@link LocationQuery}, {@link SpatialIndex}による問い合わせ</li>
+ * </ul>
+ * また{@link #acquire(java.lang.String)}で要求されたサーバーでは常に処理します。
+ * 取得した{@link Location}を保持して値を読み続ける場合は、問い合わせとして扱われないため、
+ * 指定されたサーバーの位置が必要であれば要求を取得してください。
+ *
+ * @author toyblocks
+ */
+public final class LocationDemand {
+
+    //問い合わせがこの秒数なければ、問い合わせによる要求を取り下げる
+    private static final int QUERY_LINGER_SECONDS = 10;
+    private static final ConcurrentMap<String, Server> servers = new ConcurrentHashMap<>();
+    private static final AtomicInteger handles = new AtomicInteger();
+    //指定されたサーバーでも処理するか. 利用者の登録と解除の度に計算し直す
+    private static volatile boolean active = false;
+    private static volatile boolean queried = false;
+    private static volatile boolean queryDemand = false;
+    private static int idleSeconds = 0;
+    private static ScheduledTask task;
+
+    private LocationDemand() {
+    }
+
+    /**
+     * 指定されたサーバーを含む全てのサーバーで移動を処理するよう要求します.
+     * @return 要求. 不要になれば{@link Handle#release()}を呼び出してください
+     */
+    public static Handle acquire() {
+        handles.incrementAndGet();
+        update();
+        return new Handle(null);
+    }
+
+    /**
+     * サーバーで移動を処理するよう要求します.
+     * {@link #setPassive(java.lang.String, boolean)}で指定されたサーバーでも、他に利用者がいなくとも処理されます。
+     * @param server サーバーの名前
+     * @return 要求. 不要になれば{@link Handle#release()}を呼び出してください
+     */
+    public static Handle acquire(String server) {
+        Server s = of(server);
+        if (s.handles.getAndIncrement() == 0) {
+            PacketHandler.wakeAll();
+        }
+        return new Handle(s);
+    }
+
+    /**
+     * サーバーでの移動を利用者がいる間だけ処理するか設定します.
+     * 例えばロビーサーバーのように位置をほとんど必要としないサーバーを指定すると、
+     * そのサーバーに接続しているプレイヤーの移動パケットは、利用者がいない間は処理されません。
+     * @param server サーバーの名前
+     * @param passive trueなら利用者がいる間だけ処理する、falseなら常に処理する
+     */
+    public static void setPassive(String server, boolean passive) {
+        of(server).passive = passive;
+        if (!passive) {
+            PacketHandler.wakeAll();
+        }
+    }
+
+    /**
+     * 移動を処理しているか取得します.
+     * @param server サーバーの名前. 不明なら{@code null}
+     * @return trueなら処理している、falseなら値を保持するのみ
+     */
+    public static boolean isDemanded(String server) {
+        return isDemanded(server == null ? null : of(server));
+    }
+
+    static boolean isDemanded(Server server) {
+        if (server == null || !server.passive) {
+            return true;
+        }
+        return active || server.handles.get() > 0;
+    }
+
+    static Server of(String server) {
+        Server result = servers.get(server);
+        if (result == null) {
+            Server created = new Server();
+            result = servers.putIfAbsent(server, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 利用者の登録や解除の後に、処理するか計算し直します.
+     */
+    static synchronized void update() {
+        boolean next = handles.get() > 0 || queryDemand
+                || MovementDispatcher.hasSubscribers()
+                || RegionManager.hasRegions()
+                || LocationHistory.getDepth() > 0
+                || MovementJournal.isOpen()
+                || Replication.isActive()
+                || AnomalyDetector.isEnabled();
+        boolean previous = active;
+        active = next;
+        if (next && !previous) {
+            PacketHandler.wakeAll();
+        }
+    }
+
+    //利用者による問い合わせ. 定常状態ではvolatileな読み取りのみ
+    static void queried() {
+        if (!queried) {
+            queried = true;
+            if (!queryDemand) {
+                queryDemand = true;
+                update();
+            }
+        }
+    }
+
+    static synchronized void start(Plugin plugin) {
+        task = plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                tick();
+            }
+
+        }, 1L, 1L, TimeUnit.SECONDS);
+    }
+
+    static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    static synchronized void tick() {
+        if (queried) {
+            queried = false;
+            idleSeconds = 0;
+        } else if (queryDemand && ++idleSeconds >= QUERY_LINGER_SECONDS) {
+            queryDemand = false;
+            update();
+        }
+    }
+
+    static final class Server {
+
+        private final AtomicInteger handles = new AtomicInteger();
+        private volatile boolean passive = false;
+
+    }
+
+    /**
+     * 移動を処理する要求.
+     */
+    public static final class Handle {
+
+        private final Server server;
+        private boolean released = false;
+
+        private Handle(Server server) {
+            this.server = server;
+        }
+
+        /**
+         * 要求を取り下げます.
+         * 二度目以降の呼び出しは何もしません。
+         */
+        public synchronized void release() {
+            if (this.released) {
+                return;
+            }
+            this.released = true;
+            if (this.server == null) {
+                handles.decrementAndGet();
+                update();
+            } else {
+                this.server.handles.decrementAndGet();
+            }
+        }
+
+    }
+
+}
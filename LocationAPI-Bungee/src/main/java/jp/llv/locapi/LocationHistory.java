@@ -0,0 +1,246 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.Collection;
+import java.util.UUID;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+/**
+ * LocationHistory.
+ * プレイヤーの直近の位置を、受信時刻と共に一定数保持します。
+ * 履歴はリングバッファに格納され、記録の度にインスタンスを生成しません。
+ * 既定では記録されず、{@link #setDepth(int) }で保持する数を指定すると記録が開始されます。
+ *
+ * @author toyblocks
+ */
+public final class LocationHistory {
+
+    private static volatile int depth = 0;
+
+    /**
+     * プレイヤー毎に保持する履歴の数を設定します.
+     * 0を指定すると記録を停止し、保持している履歴を破棄します。
+     * 変更は各プレイヤーの次の記録時に反映され、保持できる範囲の履歴は引き継がれます。
+     * @param depth 保持する履歴の数
+     */
+    public static void setDepth(int depth) {
+        if (depth < 0) {
+            throw new IllegalArgumentException("Negative depth");
+        }
+        LocationHistory.depth = depth;
+        LocationDemand.update();
+    }
+
+    /**
+     * プレイヤー毎に保持する履歴の数を取得します.
+     * @return 保持する履歴の数. 記録していなければ0
+     */
+    public static int getDepth() {
+        return depth;
+    }
+
+    /**
+     * プレイヤーの位置の履歴を取得します.
+     * @param player 取得したいプレイヤー
+     * @return 記録されている場合は履歴、そうでなければ{@code null}
+     */
+    public static LocationHistory of(ProxiedPlayer player) {
+        return of(player.getUniqueId());
+    }
+
+    /**
+     * UUIDからプレイヤーの位置の履歴を取得します.
+     * @param uuid 取得したいプレイヤーのUUID
+     * @return 記録されている場合は履歴、そうでなければ{@code null}
+     */
+    public static LocationHistory of(UUID uuid) {
+        Location loc = Location.of(uuid);
+        return loc == null ? null : loc.history;
+    }
+
+    /**
+     * 位置を履歴に記録します.
+     * 位置を更新するスレッド(そのプレイヤーのイベントループ)から呼び出す必要があります。
+     * @param loc 更新された位置
+     */
+    static void record(Location loc) {
+        int d = depth;
+        LocationHistory history = loc.history;
+        if (d == 0) {
+            if (history != null) {
+                loc.history = null;
+            }
+            return;
+        }
+        if (history == null || history.times.length != d) {
+            history = new LocationHistory(d, history);
+            loc.history = history;
+        }
+        history.add(System.nanoTime(), loc.getX(), loc.getY(), loc.getZ(), loc.getYaw(), loc.getPitch(), loc.isOnGround(), loc.getWorld());
+    }
+
+    //記録はそのプレイヤーのイベントループのみから行われるため、thisによる同期はほぼ競合しない
+    private final long[] times;
+    private final double[] xs, ys, zs;
+    private final float[] yaws, pitches;
+    private final boolean[] grounds;
+    private final World[] worlds;
+    //次に書き込む位置と、保持している数
+    private int head = 0, size = 0;
+
+    private LocationHistory(int depth, LocationHistory previous) {
+        this.times = new long[depth];
+        this.xs = new double[depth];
+        this.ys = new double[depth];
+        this.zs = new double[depth];
+        this.yaws = new float[depth];
+        this.pitches = new float[depth];
+        this.grounds = new boolean[depth];
+        this.worlds = new World[depth];
+        if (previous != null) {
+            synchronized (previous) {
+                for (int k = Math.max(0, previous.size - depth); k < previous.size; k++) {
+                    int i = previous.physical(k);
+                    this.add(previous.times[i], previous.xs[i], previous.ys[i], previous.zs[i],
+                            previous.yaws[i], previous.pitches[i], previous.grounds[i], previous.worlds[i]);
+                }
+            }
+        }
+    }
+
+    private synchronized void add(long time, double x, double y, double z, float yaw, float pitch, boolean onGround, World world) {
+        int i = this.head;
+        this.times[i] = time;
+        this.xs[i] = x;
+        this.ys[i] = y;
+        this.zs[i] = z;
+        this.yaws[i] = yaw;
+        this.pitches[i] = pitch;
+        this.grounds[i] = onGround;
+        this.worlds[i] = world;
+        this.head = i + 1 == this.times.length ? 0 : i + 1;
+        if (this.size < this.times.length) {
+            this.size++;
+        }
+    }
+
+    //古い順にk番目の履歴の添字
+    private int physical(int k) {
+        int i = this.head - this.size + k;
+        return i < 0 ? i + this.times.length : i;
+    }
+
+    //時刻以前の最後の履歴の番号. なければ-1
+    private int floor(long time) {
+        int low = 0, high = this.size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (this.times[this.physical(mid)] - time <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * 保持している履歴の数を取得します.
+     * @return 履歴の数
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * 保持できる履歴の数を取得します.
+     * @return 履歴の最大数
+     */
+    public int capacity() {
+        return this.times.length;
+    }
+
+    /**
+     * 最も古い履歴の時刻を取得します.
+     * @return {@link System#nanoTime() }による時刻. 履歴がなければ{@link Long#MIN_VALUE}
+     */
+    public synchronized long getOldestTime() {
+        return this.size == 0 ? Long.MIN_VALUE : this.times[this.physical(0)];
+    }
+
+    /**
+     * ある時刻におけるプレイヤーの位置を取得します.
+     * 前後の履歴から線形補間されます。ワールドが異なる履歴の間では補間せず、前の履歴を用います。
+     * 最新の履歴より後の時刻に対しては最新の履歴を書き込みます。
+     * @param time {@link System#nanoTime() }による時刻
+     * @param dst 書き込み先. プレイヤーの位置を渡してはいけません
+     * @return {@code true}なら書き込んだ、falseなら時刻が最も古い履歴より前で、書き込まなかった
+     */
+    public synchronized boolean getAt(long time, Location dst) {
+        int k = this.floor(time);
+        if (k < 0) {
+            return false;
+        }
+        int i = this.physical(k);
+        if (k + 1 == this.size || this.worlds[i] != this.worlds[this.physical(k + 1)]) {
+            dst.update(this.xs[i], this.ys[i], this.zs[i], this.yaws[i], this.pitches[i], this.grounds[i], this.worlds[i]);
+            return true;
+        }
+        int j = this.physical(k + 1);
+        double f = (double) (time - this.times[i]) / (this.times[j] - this.times[i]);
+        dst.update(this.xs[i] + (this.xs[j] - this.xs[i]) * f,
+                this.ys[i] + (this.ys[j] - this.ys[i]) * f,
+                this.zs[i] + (this.zs[j] - this.zs[i]) * f,
+                (float) (this.yaws[i] + (this.yaws[j] - this.yaws[i]) * f),
+                (float) (this.pitches[i] + (this.pitches[j] - this.pitches[i]) * f),
+                this.grounds[i], this.worlds[i]);
+        return true;
+    }
+
+    /**
+     * 期間内に記録された履歴を取得します.
+     * 履歴は古い順に追加されます。
+     * @param <T> 結果を格納するコレクションの型
+     * @param from {@link System#nanoTime() }による期間の開始時刻
+     * @param to {@link System#nanoTime() }による期間の終了時刻
+     * @param result 結果を格納するコレクション
+     * @return {@code result}
+     */
+    public synchronized <T extends Collection<? super Location>> T getBetween(long from, long to, T result) {
+        int k = this.floor(from);
+        if (k < 0 || this.times[this.physical(k)] != from) {
+            k++;
+        }
+        for (; k < this.size; k++) {
+            int i = this.physical(k);
+            if (this.times[i] - to > 0) {
+                break;
+            }
+            result.add(Location.of(this.xs[i], this.ys[i], this.zs[i], this.yaws[i], this.pitches[i], this.grounds[i], this.worlds[i]));
+        }
+        return result;
+    }
+
+}
@@ -0,0 +1,500 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * LocationQuery.
+ * 接続中の全プレイヤーの位置に対する一括処理を提供します.
+ * {@link LocationStore}の配列を先頭から走査し、各プレイヤーについて一貫した値を引数に渡します。
+ * 条件、写像および集約は値を受け取るため、{@link Location}を経由せずにインスタンスを生成することなく評価されます。
+ * プレイヤーが多い場合、集約はフォークジョインプールで並列に実行されます。
+ * 走査は常に固定の大きさのブロック毎に行われ、その部分結果はブロックの順に結合されるため、
+ * 結果は並列に実行されたかどうかに依存しません。
+ *
+ * @author toyblocks
+ */
+public final class LocationQuery {
+
+    /**
+     * 全ての位置を受け入れる条件
+     */
+    public static final Filter ALL = new Filter() {
+
+        @Override
+        public boolean test(double x, double y, double z, float yaw, float pitch, boolean onGround, World world) {
+            return true;
+        }
+
+    };
+
+    //ブロックの大きさはストアのページに合わせる
+    private static final int BLOCK_SHIFT = LocationStore.PAGE_SHIFT;
+    private static final int BLOCK_SIZE = 1 << BLOCK_SHIFT;
+    //この数以上のブロックがある場合に並列に実行する
+    private static final int PARALLEL_BLOCKS = 4;
+    private static final ThreadLocal<Snapshot> snapshots = new ThreadLocal<Snapshot>() {
+
+        @Override
+        protected Snapshot initialValue() {
+            return new Snapshot();
+        }
+
+    };
+    private static volatile ForkJoinPool pool;
+
+    private LocationQuery() {
+    }
+
+    /**
+     * 全てのプレイヤーの位置を順に訪問します.
+     * 呼び出したスレッドで順に実行されます。
+     * @param visitor 訪問者
+     */
+    public static void forEach(Visitor visitor) {
+        LocationDemand.queried();
+        Snapshot s = snapshots.get();
+        try {
+            int capacity = LocationStore.getCapacity();
+            for (int slot = 0; slot < capacity; slot++) {
+                if (s.read(slot)) {
+                    visitor.visit(s.owner, s.x, s.y, s.z, s.yaw, s.pitch, s.onGround, s.world);
+                }
+            }
+        } finally {
+            s.clear();
+        }
+    }
+
+    /**
+     * 変化の版が進んだとみなす閾値を設定します.
+     * 最後に変化とみなした時からの移動距離と視点の角度変化のいずれかが閾値を超えると、
+     * 版が進みます。
+     * @param distance 移動距離の閾値
+     * @param angle 視点の角度変化の閾値
+     * @see Location#getChangeVersion()
+     */
+    public static void setChangeThreshold(double distance, float angle) {
+        LocationStore.changeDistance = distance;
+        LocationStore.changeAngle = angle;
+    }
+
+    /**
+     * 現在の変化の版を取得します.
+     * @return 全プレイヤーの中で最も新しい変化の版以上の値
+     */
+    public static long getChangeVersion() {
+        return LocationStore.getChangeClock();
+    }
+
+    /**
+     * ある版より後に変化したプレイヤーの位置を取得します.
+     * 戻り値を次の呼び出しに渡すことで、その間に変化したプレイヤーのみを処理できます。
+     * 走査中に変化したプレイヤーは、次の呼び出しでも再び含まれることがあります。
+     * 切断したプレイヤーは含まれません。
+     * <pre>{@code
+     * long version = 0;
+     * List<Location> changed = new ArrayList<>();
+     * //毎tick
+     * version = LocationQuery.getChangedSince(version, changed);
+     * for (Location loc : changed) { ... }
+     * changed.clear();
+     * }</pre>
+     * @param version 前回の戻り値. 初回は0
+     * @param result 結果を格納するコレクション. 位置はスロットの順に追加されます
+     * @return 次の呼び出しに渡す版
+     */
+    public static long getChangedSince(long version, Collection<? super Location> result) {
+        LocationDemand.queried();
+        long next = LocationStore.getChangeClock();
+        int capacity = LocationStore.getCapacity();
+        for (int slot = 0; slot < capacity; slot++) {
+            LocationStore.Page page = LocationStore.page(slot);
+            if (page.getChange(slot) > version) {
+                Location owner = page.getOwner(slot);
+                if (owner != null) {
+                    result.add(owner);
+                }
+            }
+        }
+        return next;
+    }
+
+    /**
+     * 条件を満たすプレイヤーの数を数えます.
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @return 条件を満たすプレイヤーの数
+     */
+    public static int count(final Filter filter) {
+        LocationDemand.queried();
+        int capacity = LocationStore.getCapacity();
+        final int[] partial = new int[blocks(capacity)];
+        run(new Block(capacity) {
+
+            @Override
+            void scan(int block, Snapshot s) {
+                int n = 0;
+                for (int slot = this.first(block), end = this.last(block); slot < end; slot++) {
+                    if (s.read(slot) && filter.test(s.x, s.y, s.z, s.yaw, s.pitch, s.onGround, s.world)) {
+                        n++;
+                    }
+                }
+                partial[block] = n;
+            }
+
+        });
+        int result = 0;
+        for (int n : partial) {
+            result += n;
+        }
+        return result;
+    }
+
+    /**
+     * 条件を満たすプレイヤーの位置を取得します.
+     * 位置はスロットの順に格納されます。
+     * @param <T> 結果を格納するコレクションの型
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @param result 結果を格納するコレクション
+     * @return {@code result}
+     */
+    public static <T extends Collection<? super Location>> T collect(final Filter filter, T result) {
+        LocationDemand.queried();
+        int capacity = LocationStore.getCapacity();
+        @SuppressWarnings("unchecked")
+        final List<Location>[] partial = new List[blocks(capacity)];
+        run(new Block(capacity) {
+
+            @Override
+            void scan(int block, Snapshot s) {
+                List<Location> found = null;
+                for (int slot = this.first(block), end = this.last(block); slot < end; slot++) {
+                    if (s.read(slot) && filter.test(s.x, s.y, s.z, s.yaw, s.pitch, s.onGround, s.world)) {
+                        if (found == null) {
+                            found = new ArrayList<>();
+                        }
+                        found.add(s.owner);
+                    }
+                }
+                partial[block] = found;
+            }
+
+        });
+        for (List<Location> found : partial) {
+            if (found != null) {
+                result.addAll(found);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 条件を満たすプレイヤーの位置を写像した値を集約します.
+     * 集約はブロック毎に行われた後、ブロックの順に結合されます。
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @param mapper 写像. 並列に呼び出される可能性があります
+     * @param identity 単位元
+     * @param reducer 結合的な集約. 並列に呼び出される可能性があります
+     * @return 集約した値. 条件を満たすプレイヤーがいなければ{@code identity}
+     */
+    public static double reduce(final Filter filter, final Mapper mapper, final double identity, final Reducer reducer) {
+        LocationDemand.queried();
+        int capacity = LocationStore.getCapacity();
+        final double[] partial = new double[blocks(capacity)];
+        run(new Block(capacity) {
+
+            @Override
+            void scan(int block, Snapshot s) {
+                double acc = identity;
+                for (int slot = this.first(block), end = this.last(block); slot < end; slot++) {
+                    if (s.read(slot) && filter.test(s.x, s.y, s.z, s.yaw, s.pitch, s.onGround, s.world)) {
+                        acc = reducer.apply(acc, mapper.apply(s.x, s.y, s.z, s.yaw, s.pitch, s.onGround, s.world));
+                    }
+                }
+                partial[block] = acc;
+            }
+
+        });
+        double result = identity;
+        for (double acc : partial) {
+            result = reducer.apply(result, acc);
+        }
+        return result;
+    }
+
+    /**
+     * 条件を満たすプレイヤーの位置を写像した値の和を取得します.
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @param mapper 写像. 並列に呼び出される可能性があります
+     * @return 和
+     * @see #reduce(jp.llv.locapi.LocationQuery.Filter, jp.llv.locapi.LocationQuery.Mapper, double, jp.llv.locapi.LocationQuery.Reducer)
+     */
+    public static double sum(Filter filter, Mapper mapper) {
+        return reduce(filter, mapper, 0D, SUM);
+    }
+
+    /**
+     * 条件を満たすプレイヤーの位置を写像した値の最大値を取得します.
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @param mapper 写像. 並列に呼び出される可能性があります
+     * @return 最大値. 条件を満たすプレイヤーがいなければ{@link Double#NEGATIVE_INFINITY}
+     */
+    public static double max(Filter filter, Mapper mapper) {
+        return reduce(filter, mapper, Double.NEGATIVE_INFINITY, MAX);
+    }
+
+    /**
+     * 条件を満たすプレイヤーの位置を写像した値の最小値を取得します.
+     * @param filter 条件. 並列に呼び出される可能性があります
+     * @param mapper 写像. 並列に呼び出される可能性があります
+     * @return 最小値. 条件を満たすプレイヤーがいなければ{@link Double#POSITIVE_INFINITY}
+     */
+    public static double min(Filter filter, Mapper mapper) {
+        return reduce(filter, mapper, Double.POSITIVE_INFINITY, MIN);
+    }
+
+    private static final Reducer SUM = new Reducer() {
+
+        @Override
+        public double apply(double left, double right) {
+            return left + right;
+        }
+
+    };
+
+    private static final Reducer MAX = new Reducer() {
+
+        @Override
+        public double apply(double left, double right) {
+            return Math.max(left, right);
+        }
+
+    };
+
+    private static final Reducer MIN = new Reducer() {
+
+        @Override
+        public double apply(double left, double right) {
+            return Math.min(left, right);
+        }
+
+    };
+
+    private static int blocks(int capacity) {
+        return (capacity + BLOCK_SIZE - 1) >>> BLOCK_SHIFT;
+    }
+
+    private static void run(Block task) {
+        int blocks = blocks(task.capacity);
+        if (blocks < PARALLEL_BLOCKS) {
+            task.scan(0, blocks);
+        } else {
+            getPool().invoke(new BlockTask(task, 0, blocks));
+        }
+    }
+
+    private static ForkJoinPool getPool() {
+        ForkJoinPool result = pool;
+        if (result == null) {
+            synchronized (LocationQuery.class) {
+                result = pool;
+                if (result == null) {
+                    result = new ForkJoinPool();
+                    pool = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 位置を訪問する処理.
+     */
+    public interface Visitor {
+
+        /**
+         * プレイヤーの位置を訪問します.
+         * 引数は同一の時点における一貫した値です。
+         * @param location プレイヤーの位置
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         * @param onGround 地面の上かどうか
+         * @param world ワールド
+         */
+        void visit(Location location, double x, double y, double z, float yaw, float pitch, boolean onGround, World world);
+    }
+
+    /**
+     * 位置に対する条件.
+     */
+    public interface Filter {
+
+        /**
+         * 条件を満たすか判定します.
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         * @param onGround 地面の上かどうか
+         * @param world ワールド
+         * @return {@code true}なら条件を満たす、falseならそうでない
+         */
+        boolean test(double x, double y, double z, float yaw, float pitch, boolean onGround, World world);
+    }
+
+    /**
+     * 位置から値への写像.
+     */
+    public interface Mapper {
+
+        /**
+         * 位置を値へ写像します.
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         * @param onGround 地面の上かどうか
+         * @param world ワールド
+         * @return 写像した値
+         */
+        double apply(double x, double y, double z, float yaw, float pitch, boolean onGround, World world);
+    }
+
+    /**
+     * 二つの値の集約.
+     */
+    public interface Reducer {
+
+        /**
+         * 二つの値を集約します.
+         * @param left 左側の値
+         * @param right 右側の値
+         * @return 集約した値
+         */
+        double apply(double left, double right);
+    }
+
+    //ブロック単位の走査. 部分結果はブロック番号の位置に格納する
+    private static abstract class Block {
+
+        //走査の開始後に増えたスロットは対象外とする
+        final int capacity;
+
+        Block(int capacity) {
+            this.capacity = capacity;
+        }
+
+        abstract void scan(int block, Snapshot s);
+
+        final int first(int block) {
+            return block << BLOCK_SHIFT;
+        }
+
+        final int last(int block) {
+            return Math.min((block + 1) << BLOCK_SHIFT, this.capacity);
+        }
+
+        final void scan(int from, int to) {
+            Snapshot s = snapshots.get();
+            try {
+                for (int block = from; block < to; block++) {
+                    this.scan(block, s);
+                }
+            } finally {
+                s.clear();
+            }
+        }
+    }
+
+    //ブロックの範囲を半分ずつに分割する
+    private static final class BlockTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+        private final Block task;
+        private final int from, to;
+
+        private BlockTask(Block task, int from, int to) {
+            this.task = task;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from <= 1) {
+                this.task.scan(this.from, this.to);
+                return;
+            }
+            int mid = (this.from + this.to) >>> 1;
+            invokeAll(new BlockTask(this.task, this.from, mid), new BlockTask(this.task, mid, this.to));
+        }
+    }
+
+    /**
+     * スロットから一貫した値を読み取る作業領域.
+     * スレッド毎に使いまわされます。
+     */
+    private static final class Snapshot {
+
+        private Location owner;
+        private double x, y, z;
+        private float yaw, pitch;
+        private boolean onGround;
+        private World world;
+
+        //空きスロットならfalse
+        private boolean read(int slot) {
+            LocationStore.Page page = LocationStore.page(slot);
+            long v;
+            do {
+                v = page.getVersion(slot);
+                this.owner = page.getOwner(slot);
+                this.x = page.getX(slot);
+                this.y = page.getY(slot);
+                this.z = page.getZ(slot);
+                this.yaw = page.getYaw(slot);
+                this.pitch = page.getPitch(slot);
+                this.onGround = page.isOnGround(slot);
+                this.world = page.getWorld(slot);
+            } while ((v & 1L) != 0 || page.getVersion(slot) != v);
+            return this.owner != null;
+        }
+
+        private void clear() {
+            this.owner = null;
+            this.world = null;
+        }
+    }
+
+}
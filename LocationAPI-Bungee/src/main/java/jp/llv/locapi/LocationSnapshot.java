@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * LocationSnapshot.
+ * プレイヤーの最後の位置をファイルへ保存し、プロキシの再起動後に復元します。
+ * 復元された位置は{@link Location#of(java.util.UUID)}から取得でき、
+ * そのプレイヤーが接続して移動するまで{@link Location#isStale()}が{@code true}を返します。
+ * <p>
+ * ファイルはビッグエンディアンで、32バイトのヘッダ、64バイト固定長のエントリ、ワールドの表の順に並びます。
+ * エントリは先頭から
+ * プレイヤーのUUID, x, y, z(double), yaw, pitch(float), ワールドの番号(int), フラグ(int), 保存した時刻(long)
+ * です。読み込みはファイル全体を一度に読み込んでから行い、保存時に置き換えるファイルを開いたままにしません。
+ *
+ * @author toyblocks
+ */
+public final class LocationSnapshot {
+
+    /**
+     * エントリの大きさ
+     */
+    public static final int ENTRY_SIZE = 64;
+    private static final int MAGIC = 0x4C415053;//LAPS
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int FLAG_ON_GROUND = 1;
+    //名前とサーバーを持たないワールドの表での大きさ
+    private static final int MIN_WORLD_SIZE = 1 + 16 + 2 + 2;
+    private static final String FILE_NAME = "locations.dat";
+    private static final long DEFAULT_PERIOD_MILLIS = 60_000L;
+    private static final ConcurrentMap<UUID, Entry> entries = new ConcurrentHashMap<>();
+    private static volatile long expiry = TimeUnit.DAYS.toMillis(7L);
+    private static Plugin owner;
+    private static ScheduledTask task;
+    private static Thread hook;
+
+    private LocationSnapshot() {
+    }
+
+    /**
+     * 位置を保持する期間を設定します.
+     * 最後に更新されてからこの期間を過ぎた位置は保存されず、読み込まれません。
+     * @param duration 期間
+     * @param unit 期間の単位
+     */
+    public static void setExpiry(long duration, TimeUnit unit) {
+        expiry = unit.toMillis(duration);
+    }
+
+    static synchronized void start(Plugin plugin) {
+        owner = plugin;
+        final File file = new File(plugin.getDataFolder(), FILE_NAME);
+        if (file.isFile()) {
+            try {
+                long begin = System.nanoTime();
+                int count = load(file);
+                plugin.getLogger().log(Level.INFO, "Restored {0} locations in {1} ms",
+                        new Object[]{count, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin)});
+            } catch (IOException | RuntimeException ex) {
+                plugin.getLogger().log(Level.WARNING, "Failed to restore locations from " + file, ex);
+            }
+        }
+        Runnable checkpoint = new Runnable() {
+
+            @Override
+            public void run() {
+                checkpoint(file);
+            }
+
+        };
+        task = plugin.getProxy().getScheduler().schedule(plugin, checkpoint, DEFAULT_PERIOD_MILLIS, DEFAULT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+        //プラグインの無効化を待たず、プロセスの終了時に必ず保存する
+        hook = new Thread(checkpoint, "LocationAPI Snapshot");
+        Runtime.getRuntime().addShutdownHook(hook);
+    }
+
+    static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        if (hook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ex) {
+                //既に終了処理中
+            }
+            hook = null;
+        }
+        //終了時の保存は登録を外したフックの代わりにここで行う
+        if (owner != null) {
+            checkpoint(new File(owner.getDataFolder(), FILE_NAME));
+        }
+    }
+
+    static synchronized void checkpoint(File file) {
+        try {
+            save(file);
+        } catch (IOException ex) {
+            owner.getLogger().log(Level.WARNING, "Failed to save locations to " + file, ex);
+        }
+    }
+
+    /**
+     * 接続中のプレイヤーと保持している位置をファイルへ保存します.
+     * 一時ファイルへ書き込んでから置き換えるため、書き込みの途中で終了しても以前のファイルは壊れません。
+     * @param file ファイル
+     * @return 保存した位置の数
+     * @throws IOException 書き込めなかった
+     */
+    public static synchronized int save(File file) throws IOException {
+        long now = System.currentTimeMillis();
+        long limit = now - expiry;
+        int capacity = LocationStore.getCapacity();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + ENTRY_SIZE * (capacity + entries.size() + 16));
+        Map<World, Integer> worlds = new IdentityHashMap<>();
+        List<World> table = new ArrayList<>();
+        Location scratch = Location.of(0D, 0D, 0D, 0F, 0F, false);
+        int count = 0;
+        buf.position(HEADER_SIZE);
+        for (int slot = 0; slot < capacity; slot++) {
+            Location loc = LocationStore.page(slot).getOwner(slot);
+            if (loc == null || buf.remaining() < ENTRY_SIZE) {
+                continue;
+            }
+            //復元されたまま移動していない位置は、復元した時刻を引き継がないため現在の時刻で保存される
+            loc.copyTo(scratch);
+            put(buf, loc.getPlayerUUID(), scratch, indexOf(scratch.getWorld(), worlds, table), now);
+            count++;
+        }
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+            Entry entry = it.next();
+            if (entry.time < limit) {
+                it.remove();
+                continue;
+            }
+            if (buf.remaining() < ENTRY_SIZE) {
+                break;
+            }
+            put(buf, entry.location.getPlayerUUID(), entry.location, indexOf(entry.location.getWorld(), worlds, table), entry.time);
+            count++;
+        }
+        long worldOffset = buf.position();
+        ByteBuffer names = ByteBuffer.allocate(table.size() * 64 + 64);
+        for (World world : table) {
+            names = put(names, world);
+        }
+        names.flip();
+        buf.putInt(0, MAGIC).putInt(4, FORMAT_VERSION).putLong(8, now).putInt(16, count).putInt(20, table.size()).putLong(24, worldOffset);
+        buf.flip();
+
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File temp = new File(dir, file.getName() + ".tmp");
+        try (RandomAccessFile out = new RandomAccessFile(temp, "rw"); FileChannel channel = out.getChannel()) {
+            channel.truncate(0L);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            while (names.hasRemaining()) {
+                channel.write(names);
+            }
+            channel.force(false);
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return count;
+    }
+
+    /**
+     * ファイルから位置を読み込みます.
+     * 接続中のプレイヤーの位置は置き換えず、期限を過ぎた位置は読み込みません。
+     * @param file ファイル
+     * @return 読み込んだ位置の数
+     * @throws IOException 読み込めなかった、またはスナップショットではない
+     */
+    public static synchronized int load(File file) throws IOException {
+        //マップしたままでは、Windowsでは保存時にファイルを置き換えられない
+        ByteBuffer buf;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r"); FileChannel channel = in.getChannel()) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Too large location snapshot: " + file);
+            }
+            buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+            buf.flip();
+        }
+        try {
+            return load(file, buf);
+        } catch (RuntimeException ex) {
+            throw new IOException("Corrupted location snapshot: " + file, ex);
+        }
+    }
+
+    private static int load(File file, ByteBuffer buf) throws IOException {
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION) {
+            throw new IOException("Not a location snapshot: " + file);
+        }
+        int count = buf.getInt(16), worldCount = buf.getInt(20);
+        long worldOffset = buf.getLong(24);
+        if (count < 0 || worldCount < 0 || worldOffset != HEADER_SIZE + (long) ENTRY_SIZE * count || worldOffset > buf.limit()
+                || worldCount > (buf.limit() - worldOffset) / MIN_WORLD_SIZE) {
+            throw new IOException("Corrupted location snapshot: " + file);
+        }
+        World[] worlds = new World[worldCount];
+        buf.position((int) worldOffset);
+        for (int i = 0; i < worldCount; i++) {
+            worlds[i] = World.readFrom(buf);
+        }
+        long limit = System.currentTimeMillis() - expiry;
+        int loaded = 0;
+        for (int i = 0, p = HEADER_SIZE; i < count; i++, p += ENTRY_SIZE) {
+            long time = buf.getLong(p + 56);
+            int world = buf.getInt(p + 48);
+            if (time < limit || world < 0 || world >= worldCount) {
+                continue;
+            }
+            UUID uuid = new UUID(buf.getLong(p), buf.getLong(p + 8));
+            if (Location.isOnline(uuid)) {
+                continue;
+            }
+            Location loc = Location.restore(uuid, buf.getDouble(p + 16), buf.getDouble(p + 24), buf.getDouble(p + 32),
+                    buf.getFloat(p + 40), buf.getFloat(p + 44), (buf.getInt(p + 52) & FLAG_ON_GROUND) != 0, worlds[world]);
+            entries.put(uuid, new Entry(loc, time));
+            loaded++;
+        }
+        return loaded;
+    }
+
+    //接続していないプレイヤーの最後の位置を返す
+    static Location get(UUID uuid) {
+        Entry entry = entries.get(uuid);
+        return entry == null ? null : entry.location;
+    }
+
+    //接続したプレイヤーの最後の位置を取り出す
+    static Location take(UUID uuid) {
+        Entry entry = entries.remove(uuid);
+        return entry == null ? null : entry.location;
+    }
+
+    //切断したプレイヤーの最後の位置を保持する
+    static void retain(UUID uuid, Location location) {
+        location.setStale(true);
+        entries.put(uuid, new Entry(location, System.currentTimeMillis()));
+    }
+
+    private static int indexOf(World world, Map<World, Integer> worlds, List<World> table) {
+        Integer index = worlds.get(world);
+        if (index == null) {
+            index = table.size();
+            worlds.put(world, index);
+            table.add(world);
+        }
+        return index;
+    }
+
+    private static void put(ByteBuffer buf, UUID uuid, Location loc, int world, long time) {
+        buf.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+                .putDouble(loc.getX()).putDouble(loc.getY()).putDouble(loc.getZ())
+                .putFloat(loc.getYaw()).putFloat(loc.getPitch())
+                .putInt(world).putInt(loc.isOnGround() ? FLAG_ON_GROUND : 0).putLong(time);
+    }
+
+    private static ByteBuffer put(ByteBuffer buf, World world) {
+        int size = world.getEncodedSize();
+        if (buf.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + size));
+            buf.flip();
+            buf = grown.put(buf);
+        }
+        world.writeTo(buf);
+        return buf;
+    }
+
+    private static final class Entry {
+
+        private final Location location;
+        private final long time;
+
+        private Entry(Location location, long time) {
+            this.location = location;
+            this.time = time;
+        }
+
+    }
+
+}
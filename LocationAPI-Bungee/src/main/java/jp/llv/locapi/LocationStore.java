@@ -0,0 +1,393 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * LocationStore.
+ * 接続中のプレイヤーの位置を、番号(スロット)を添字とする値の種類毎の配列で保持します。
+ * 全プレイヤーを走査する処理がオブジェクトを辿ることなく連続したメモリを読めるよう、
+ * {@link Location}はスロットへのビューとして振る舞います。
+ * スロットは切断時に解放され、次に接続したプレイヤーに再利用されます。
+ *
+ * @author toyblocks
+ */
+final class LocationStore {
+
+    static final int PAGE_SHIFT = 10;
+    static final int PAGE_SIZE = 1 << PAGE_SHIFT;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+    private static final int FLAG_ON_GROUND = 1, FLAG_SAMPLED = 2, FLAG_STALE = 4;
+    //速度と加速度の指数平滑の時定数
+    private static final double VELOCITY_TAU = 100_000_000D, ACCELERATION_TAU = 200_000_000D;
+    //これより間隔の空いた標本からは推定せず、推定をやり直す
+    private static final long MAX_SAMPLE_GAP = 1_000_000_000L;
+    //意味のある変化の度に進む、全プレイヤーに共通の版
+    private static final AtomicLong changeClock = new AtomicLong();
+    static volatile double changeDistance = 0.01D;
+    static volatile float changeAngle = 0.5F;
+
+    //ページの追加とスロットの割り当てはLocationStore.classで同期する
+    private static volatile Page[] pages = new Page[0];
+    private static volatile int capacity = 0;
+    private static int[] free = new int[16];
+    private static int freeCount = 0;
+    private static int used = 0;
+
+    private LocationStore() {
+    }
+
+    /**
+     * 位置にスロットを割り当てます.
+     * 再利用されたスロットの値は初期値に戻されますが、バージョンは引き継がれます。
+     * @param owner スロットを持つ位置
+     * @return 割り当てたスロット
+     */
+    static synchronized int allocate(Location owner) {
+        int slot;
+        if (freeCount > 0) {
+            slot = free[--freeCount];
+        } else {
+            slot = capacity;
+            if ((slot >>> PAGE_SHIFT) >= pages.length) {
+                Page[] next = Arrays.copyOf(pages, pages.length + 1);
+                next[pages.length] = new Page(slot);
+                pages = next;
+            }
+            capacity = slot + 1;
+        }
+        used++;
+        Page page = page(slot);
+        long v = page.begin(slot);
+        page.setPosition(slot, Double.NaN, Double.NaN, Double.NaN);
+        page.setAngles(slot, -1F, -1F);
+        page.flags.set(slot & PAGE_MASK, 0);
+        page.clearMotion(slot);
+        page.setWorld(slot, World.UNKNOWN);
+        page.owners.set(slot & PAGE_MASK, owner);
+        page.end(slot, v);
+        page.clearChange(slot);
+        return slot;
+    }
+
+    /**
+     * スロットを解放します.
+     * 解放する前に、位置はスロットから切り離されている必要があります。
+     * @param slot 解放するスロット
+     */
+    static synchronized void release(int slot) {
+        //持ち主の変更もバージョンで保護し、走査中の読み込みが異なる持ち主の値を混ぜないようにする
+        Page page = page(slot);
+        long v = page.begin(slot);
+        page.owners.set(slot & PAGE_MASK, null);
+        page.end(slot, v);
+        if (freeCount == free.length) {
+            free = Arrays.copyOf(free, freeCount * 2);
+        }
+        free[freeCount++] = slot;
+        used--;
+    }
+
+    static Page page(int slot) {
+        return pages[slot >>> PAGE_SHIFT];
+    }
+
+    /**
+     * 割り当てたことのあるスロットの数を取得します.
+     * これ未満のスロットには解放済みのものも含まれ、その持ち主は{@code null}です。
+     * @return スロットの上限
+     */
+    static int getCapacity() {
+        return capacity;
+    }
+
+    static synchronized int size() {
+        return used;
+    }
+
+    static long getChangeClock() {
+        return changeClock.get();
+    }
+
+    /**
+     * 一つのページに含まれるスロットの値.
+     * 値はバージョンによるシーケンスロックで保護され、書き込みはそのプレイヤーのスレッドからのみ行われます。
+     * 浮動小数点数はビット列として保持します。
+     */
+    static final class Page {
+
+        final int base;
+        private final AtomicLongArray versions = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray xs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray ys = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray zs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicIntegerArray yaws = new AtomicIntegerArray(PAGE_SIZE);
+        private final AtomicIntegerArray pitches = new AtomicIntegerArray(PAGE_SIZE);
+        private final AtomicIntegerArray flags = new AtomicIntegerArray(PAGE_SIZE);
+        //速度と加速度の推定. 直前の標本の座標と時刻を持つ
+        private final AtomicLongArray sampledXs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray sampledYs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray sampledZs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray sampledTimes = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray vxs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray vys = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray vzs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray axs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray ays = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray azs = new AtomicLongArray(PAGE_SIZE);
+        //最後に意味のある変化とみなした時の値と、その時の版
+        private final AtomicLongArray changes = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray changedXs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray changedYs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicLongArray changedZs = new AtomicLongArray(PAGE_SIZE);
+        private final AtomicIntegerArray changedYaws = new AtomicIntegerArray(PAGE_SIZE);
+        private final AtomicIntegerArray changedPitches = new AtomicIntegerArray(PAGE_SIZE);
+        private final AtomicReferenceArray<World> changedWorlds = new AtomicReferenceArray<>(PAGE_SIZE);
+        private final AtomicReferenceArray<World> worlds = new AtomicReferenceArray<>(PAGE_SIZE);
+        private final AtomicReferenceArray<Location> owners = new AtomicReferenceArray<>(PAGE_SIZE);
+
+        private Page(int base) {
+            this.base = base;
+        }
+
+        long getVersion(int slot) {
+            return this.versions.get(slot & PAGE_MASK);
+        }
+
+        //書き込みの開始. 戻り値をend(int, long)に渡す
+        long begin(int slot) {
+            int i = slot & PAGE_MASK;
+            long v = this.versions.get(i);
+            this.versions.set(i, v + 1);
+            return v;
+        }
+
+        void end(int slot, long v) {
+            this.versions.set(slot & PAGE_MASK, v + 2);
+        }
+
+        double getX(int slot) {
+            return Double.longBitsToDouble(this.xs.get(slot & PAGE_MASK));
+        }
+
+        double getY(int slot) {
+            return Double.longBitsToDouble(this.ys.get(slot & PAGE_MASK));
+        }
+
+        double getZ(int slot) {
+            return Double.longBitsToDouble(this.zs.get(slot & PAGE_MASK));
+        }
+
+        float getYaw(int slot) {
+            return Float.intBitsToFloat(this.yaws.get(slot & PAGE_MASK));
+        }
+
+        float getPitch(int slot) {
+            return Float.intBitsToFloat(this.pitches.get(slot & PAGE_MASK));
+        }
+
+        boolean isOnGround(int slot) {
+            return (this.flags.get(slot & PAGE_MASK) & FLAG_ON_GROUND) != 0;
+        }
+
+        World getWorld(int slot) {
+            return this.worlds.get(slot & PAGE_MASK);
+        }
+
+        Location getOwner(int slot) {
+            return this.owners.get(slot & PAGE_MASK);
+        }
+
+        void setPosition(int slot, double x, double y, double z) {
+            int i = slot & PAGE_MASK;
+            this.xs.set(i, Double.doubleToRawLongBits(x));
+            this.ys.set(i, Double.doubleToRawLongBits(y));
+            this.zs.set(i, Double.doubleToRawLongBits(z));
+        }
+
+        void setAngles(int slot, float yaw, float pitch) {
+            int i = slot & PAGE_MASK;
+            this.yaws.set(i, Float.floatToRawIntBits(yaw));
+            this.pitches.set(i, Float.floatToRawIntBits(pitch));
+        }
+
+        void setOnGround(int slot, boolean onGround) {
+            int i = slot & PAGE_MASK;
+            int f = this.flags.get(i);
+            this.flags.set(i, onGround ? f | FLAG_ON_GROUND : f & ~FLAG_ON_GROUND);
+        }
+
+        boolean isStale(int slot) {
+            return (this.flags.get(slot & PAGE_MASK) & FLAG_STALE) != 0;
+        }
+
+        void setStale(int slot, boolean stale) {
+            int i = slot & PAGE_MASK;
+            int f = this.flags.get(i);
+            this.flags.set(i, stale ? f | FLAG_STALE : f & ~FLAG_STALE);
+        }
+
+        void setWorld(int slot, World world) {
+            this.worlds.set(slot & PAGE_MASK, world);
+        }
+
+        double getVelocityX(int slot) {
+            return Double.longBitsToDouble(this.vxs.get(slot & PAGE_MASK));
+        }
+
+        double getVelocityY(int slot) {
+            return Double.longBitsToDouble(this.vys.get(slot & PAGE_MASK));
+        }
+
+        double getVelocityZ(int slot) {
+            return Double.longBitsToDouble(this.vzs.get(slot & PAGE_MASK));
+        }
+
+        double getAccelerationX(int slot) {
+            return Double.longBitsToDouble(this.axs.get(slot & PAGE_MASK));
+        }
+
+        double getAccelerationY(int slot) {
+            return Double.longBitsToDouble(this.ays.get(slot & PAGE_MASK));
+        }
+
+        double getAccelerationZ(int slot) {
+            return Double.longBitsToDouble(this.azs.get(slot & PAGE_MASK));
+        }
+
+        /**
+         * 現在の座標を標本として速度と加速度の推定を更新します.
+         * 推定値は標本の間隔に応じた指数平滑で更新され、標本毎の計算量は一定です。
+         * 書き込みの途中(begin/endの間)に呼び出す必要があります。
+         * @param slot スロット
+         * @param time {@link System#nanoTime() }による標本の時刻
+         */
+        void sample(int slot, long time) {
+            int i = slot & PAGE_MASK;
+            double x = this.getX(slot), y = this.getY(slot), z = this.getZ(slot);
+            int f = this.flags.get(i);
+            long dt = time - this.sampledTimes.get(i);
+            if ((f & FLAG_SAMPLED) == 0 || dt > MAX_SAMPLE_GAP || Double.isNaN(x)) {
+                this.clearMotion(slot);
+                this.flags.set(i, Double.isNaN(x) ? f & ~FLAG_SAMPLED : f | FLAG_SAMPLED);
+            } else if (dt > 0) {
+                double seconds = dt / 1_000_000_000D;
+                double alpha = 1D - Math.exp(-dt / VELOCITY_TAU);
+                double beta = 1D - Math.exp(-dt / ACCELERATION_TAU);
+                double vx = this.getVelocityX(slot), vy = this.getVelocityY(slot), vz = this.getVelocityZ(slot);
+                double nvx = vx + alpha * ((x - Double.longBitsToDouble(this.sampledXs.get(i))) / seconds - vx);
+                double nvy = vy + alpha * ((y - Double.longBitsToDouble(this.sampledYs.get(i))) / seconds - vy);
+                double nvz = vz + alpha * ((z - Double.longBitsToDouble(this.sampledZs.get(i))) / seconds - vz);
+                double ax = this.getAccelerationX(slot), ay = this.getAccelerationY(slot), az = this.getAccelerationZ(slot);
+                this.axs.set(i, Double.doubleToRawLongBits(ax + beta * ((nvx - vx) / seconds - ax)));
+                this.ays.set(i, Double.doubleToRawLongBits(ay + beta * ((nvy - vy) / seconds - ay)));
+                this.azs.set(i, Double.doubleToRawLongBits(az + beta * ((nvz - vz) / seconds - az)));
+                this.vxs.set(i, Double.doubleToRawLongBits(nvx));
+                this.vys.set(i, Double.doubleToRawLongBits(nvy));
+                this.vzs.set(i, Double.doubleToRawLongBits(nvz));
+            } else {
+                //同時刻の標本からは推定できないため、次の標本でまとめて扱う
+                return;
+            }
+            this.sampledXs.set(i, Double.doubleToRawLongBits(x));
+            this.sampledYs.set(i, Double.doubleToRawLongBits(y));
+            this.sampledZs.set(i, Double.doubleToRawLongBits(z));
+            this.sampledTimes.set(i, time);
+        }
+
+        long getChange(int slot) {
+            return this.changes.get(slot & PAGE_MASK);
+        }
+
+        /**
+         * 最後に変化とみなした時から閾値を超えて変化していれば、変化の版を進めます.
+         * ワールドの変更は常に変化とみなします。
+         * @param slot スロット
+         */
+        void touch(int slot) {
+            int i = slot & PAGE_MASK;
+            double x = this.getX(slot), y = this.getY(slot), z = this.getZ(slot);
+            float yaw = this.getYaw(slot), pitch = this.getPitch(slot);
+            World world = this.getWorld(slot);
+            double dx = x - Double.longBitsToDouble(this.changedXs.get(i));
+            double dy = y - Double.longBitsToDouble(this.changedYs.get(i));
+            double dz = z - Double.longBitsToDouble(this.changedZs.get(i));
+            double distance = changeDistance;
+            float angle = changeAngle;
+            //NaNとの比較は偽になるため、未記録の値からの変化も変化とみなされる
+            if (world == this.changedWorlds.get(i)
+                    && dx * dx + dy * dy + dz * dz <= distance * distance
+                    && Math.abs(yaw - Float.intBitsToFloat(this.changedYaws.get(i))) <= angle
+                    && Math.abs(pitch - Float.intBitsToFloat(this.changedPitches.get(i))) <= angle) {
+                return;
+            }
+            this.changedXs.set(i, Double.doubleToRawLongBits(x));
+            this.changedYs.set(i, Double.doubleToRawLongBits(y));
+            this.changedZs.set(i, Double.doubleToRawLongBits(z));
+            this.changedYaws.set(i, Float.floatToRawIntBits(yaw));
+            this.changedPitches.set(i, Float.floatToRawIntBits(pitch));
+            this.changedWorlds.set(i, world);
+            this.changed(slot);
+        }
+
+        //前の持ち主の値と比較しないよう、最初の位置を必ず変化とみなす
+        void clearChange(int slot) {
+            int i = slot & PAGE_MASK;
+            this.changedXs.set(i, Double.doubleToRawLongBits(Double.NaN));
+            this.changedWorlds.set(i, null);
+            this.changed(slot);
+        }
+
+        private void changed(int slot) {
+            int i = slot & PAGE_MASK;
+            //版を得る前に最大値を書いておき、その間に走査した読み込みにも変化として見えるようにする
+            this.changes.set(i, Long.MAX_VALUE);
+            this.changes.set(i, changeClock.incrementAndGet());
+        }
+
+        /**
+         * 速度と加速度の推定を破棄します.
+         * テレポート等の不連続な移動の後に呼び出します。
+         * 書き込みの途中(begin/endの間)に呼び出す必要があります。
+         * @param slot スロット
+         */
+        void clearMotion(int slot) {
+            int i = slot & PAGE_MASK;
+            long zero = Double.doubleToRawLongBits(0D);
+            this.vxs.set(i, zero);
+            this.vys.set(i, zero);
+            this.vzs.set(i, zero);
+            this.axs.set(i, zero);
+            this.ays.set(i, zero);
+            this.azs.set(i, zero);
+            this.flags.set(i, this.flags.get(i) & ~FLAG_SAMPLED);
+        }
+    }
+
+}
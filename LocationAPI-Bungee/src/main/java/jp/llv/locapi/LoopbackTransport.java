@@ -0,0 +1,83 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * LoopbackTransport.
+ * 同じプロセス内の{@link ReplicationTransport}にバッチを届ける経路です.
+ * 複数のプロキシを一つのプロセスで模すテストや、単一のプロキシでの動作確認に使います。
+ * 送信したバッチは、同じ経路に接続された自分以外の全ての経路へ呼び出し元のスレッドで届けられます。
+ *
+ * @author toyblocks
+ */
+public final class LoopbackTransport implements ReplicationTransport {
+
+    private final List<LoopbackTransport> members;
+    private volatile Receiver receiver;
+
+    /**
+     * 新たな経路を作成します.
+     */
+    public LoopbackTransport() {
+        this.members = new CopyOnWriteArrayList<>();
+        this.members.add(this);
+    }
+
+    /**
+     * 既存の経路に接続する経路を作成します.
+     * @param peer 接続先の経路
+     */
+    public LoopbackTransport(LoopbackTransport peer) {
+        this.members = peer.members;
+        this.members.add(this);
+    }
+
+    @Override
+    public void send(ByteBuffer batch) {
+        byte[] copy = new byte[batch.remaining()];
+        batch.duplicate().get(copy);
+        for (LoopbackTransport member : this.members) {
+            Receiver r = member.receiver;
+            if (member != this && r != null) {
+                r.receive(ByteBuffer.wrap(copy).asReadOnlyBuffer());
+            }
+        }
+    }
+
+    @Override
+    public void setReceiver(Receiver receiver) {
+        this.receiver = receiver;
+    }
+
+    @Override
+    public void close() {
+        this.receiver = null;
+        this.members.remove(this);
+    }
+
+}
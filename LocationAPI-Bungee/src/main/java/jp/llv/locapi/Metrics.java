@@ -0,0 +1,236 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Metrics.
+ * {@link PacketHandler}の処理量と処理時間を計測します.
+ * 既定では計測せず、{@link #setEnabled(boolean)}で実行中に切り替えられます。
+ * 計測していない間、パケットの処理で行われるのはvolatileなフラグの読み取りのみです。
+ * <p>
+ * 値はこのクラスのメソッドで取得できるほか、JMXの{@code jp.llv.locapi:type=Metrics}としても公開されます。
+ * カウンタはスレッド毎に分割され、ヒストグラムはロックを取得せずに記録されます。
+ *
+ * @author toyblocks
+ */
+public final class Metrics implements MetricsMBean {
+
+    private static final String OBJECT_NAME = "jp.llv.locapi:type=Metrics";
+    private static final long RATE_PERIOD_MILLIS = 1000L;
+    private static final Metrics instance = new Metrics();
+    static volatile boolean enabled = false;
+
+    final StripedCounter movementPackets = new StripedCounter();
+    final StripedCounter worldMessages = new StripedCounter();
+    final StripedCounter worldMessageFailures = new StripedCounter();
+    final LatencyHistogram readLatency = new LatencyHistogram();
+    final LatencyHistogram writeLatency = new LatencyHistogram();
+    //直近1秒の移動パケットの数. 定期的に更新する
+    private volatile long movementPacketRate = 0L;
+    private long lastMovementPackets = 0L;
+    private ScheduledTask task;
+
+    private Metrics() {
+    }
+
+    /**
+     * 計測値を取得します.
+     * @return 計測値
+     */
+    public static Metrics get() {
+        return instance;
+    }
+
+    static synchronized void start(Plugin plugin) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(instance, name);
+            }
+        } catch (JMException | SecurityException ex) {
+            plugin.getLogger().log(Level.WARNING, "Failed to register metrics MBean", ex);
+        }
+        instance.task = plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                instance.tick();
+            }
+
+        }, RATE_PERIOD_MILLIS, RATE_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (instance.task != null) {
+            instance.task.cancel();
+            instance.task = null;
+        }
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(new ObjectName(OBJECT_NAME));
+        } catch (JMException | SecurityException ex) {
+            //登録されていない
+        }
+    }
+
+    private synchronized void tick() {
+        long packets = this.movementPackets.sum();
+        this.movementPacketRate = packets - this.lastMovementPackets;
+        this.lastMovementPackets = packets;
+        PacketHandler.sampleMovementRates();
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void setEnabled(boolean enabled) {
+        Metrics.enabled = enabled;
+    }
+
+    @Override
+    public long getMovementPackets() {
+        return this.movementPackets.sum();
+    }
+
+    @Override
+    public long getMovementPacketRate() {
+        return this.movementPacketRate;
+    }
+
+    @Override
+    public long getMovementPackets(String player) {
+        ProxiedPlayer p = ProxyServer.getInstance().getPlayer(player);
+        return p == null ? -1L : this.getMovementPackets(p);
+    }
+
+    /**
+     * プレイヤーから受信した移動パケットの数を取得します.
+     * @param player プレイヤー
+     * @return 移動パケットの数. パケットを処理していなければ-1
+     */
+    public long getMovementPackets(ProxiedPlayer player) {
+        PacketHandler handler = PacketHandler.of(player);
+        return handler == null ? -1L : handler.getMovementPackets();
+    }
+
+    /**
+     * プレイヤーから直近1秒間に受信した移動パケットの数を取得します.
+     * 計測が有効な間に受信したパケットのみ数えます.
+     * @param player プレイヤー
+     * @return 直近1秒間の移動パケットの数. パケットを処理していなければ-1
+     */
+    public long getMovementPacketRate(ProxiedPlayer player) {
+        PacketHandler handler = PacketHandler.of(player);
+        return handler == null ? -1L : handler.getMovementPacketRate();
+    }
+
+    @Override
+    public int getRegistrySize() {
+        return LocationStore.size();
+    }
+
+    @Override
+    public long getWorldMessages() {
+        return this.worldMessages.sum();
+    }
+
+    @Override
+    public long getWorldMessageFailures() {
+        return this.worldMessageFailures.sum();
+    }
+
+    @Override
+    public long getReadCount() {
+        return this.readLatency.count();
+    }
+
+    @Override
+    public long getReadLatencyMedian() {
+        return this.readLatency.percentile(50D);
+    }
+
+    @Override
+    public long getReadLatency99thPercentile() {
+        return this.readLatency.percentile(99D);
+    }
+
+    @Override
+    public long getWriteCount() {
+        return this.writeLatency.count();
+    }
+
+    @Override
+    public long getWriteLatencyMedian() {
+        return this.writeLatency.percentile(50D);
+    }
+
+    @Override
+    public long getWriteLatency99thPercentile() {
+        return this.writeLatency.percentile(99D);
+    }
+
+    /**
+     * 受信したパケットの処理時間の百分位を取得します.
+     * @param percentile 百分位. 0から100
+     * @return 2の冪に丸めた処理時間の上限(ナノ秒). 記録がなければ0
+     */
+    public long getReadLatency(double percentile) {
+        return this.readLatency.percentile(percentile);
+    }
+
+    /**
+     * 送信するパケットの処理時間の百分位を取得します.
+     * @param percentile 百分位. 0から100
+     * @return 2の冪に丸めた処理時間の上限(ナノ秒). 記録がなければ0
+     */
+    public long getWriteLatency(double percentile) {
+        return this.writeLatency.percentile(percentile);
+    }
+
+    @Override
+    public synchronized void reset() {
+        this.movementPackets.reset();
+        this.worldMessages.reset();
+        this.worldMessageFailures.reset();
+        this.readLatency.reset();
+        this.writeLatency.reset();
+        this.movementPacketRate = 0L;
+        this.lastMovementPackets = 0L;
+    }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+/**
+ * MetricsMBean.
+ * {@link Metrics}をJMXから参照するためのインターフェースです.
+ * 時間はナノ秒、百分位は2の冪に丸めた上限です。
+ *
+ * @author toyblocks
+ */
+public interface MetricsMBean {
+
+    /**
+     * 計測しているか取得します.
+     * @return trueなら計測している、falseならそうでない
+     */
+    boolean isEnabled();
+
+    /**
+     * 計測するか設定します.
+     * @param enabled trueなら計測する
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * 受信した移動パケットの数を取得します.
+     * @return 移動パケットの数
+     */
+    long getMovementPackets();
+
+    /**
+     * 直近の1秒間に受信した移動パケットの数を取得します.
+     * @return 1秒あたりの移動パケットの数
+     */
+    long getMovementPacketRate();
+
+    /**
+     * プレイヤーから受信した移動パケットの数を取得します.
+     * @param player プレイヤーの名前
+     * @return 移動パケットの数. 接続していなければ-1
+     */
+    long getMovementPackets(String player);
+
+    /**
+     * 位置が記録されているプレイヤーの数を取得します.
+     * @return 登録されている位置の数
+     */
+    int getRegistrySize();
+
+    /**
+     * 受け取ったLAPIWメッセージの数を取得します.
+     * @return LAPIWメッセージの数
+     */
+    long getWorldMessages();
+
+    /**
+     * 読み取れなかったLAPIWメッセージの数を取得します.
+     * @return 不正なLAPIWメッセージの数
+     */
+    long getWorldMessageFailures();
+
+    /**
+     * 受信したパケットの処理の回数を取得します.
+     * @return channelReadの呼び出し回数
+     */
+    long getReadCount();
+
+    /**
+     * 受信したパケットの処理時間の中央値を取得します.
+     * @return ナノ秒
+     */
+    long getReadLatencyMedian();
+
+    /**
+     * 受信したパケットの処理時間の99パーセンタイルを取得します.
+     * @return ナノ秒
+     */
+    long getReadLatency99thPercentile();
+
+    /**
+     * 送信するパケットの処理の回数を取得します.
+     * @return writeの呼び出し回数
+     */
+    long getWriteCount();
+
+    /**
+     * 送信するパケットの処理時間の中央値を取得します.
+     * @return ナノ秒
+     */
+    long getWriteLatencyMedian();
+
+    /**
+     * 送信するパケットの処理時間の99パーセンタイルを取得します.
+     * @return ナノ秒
+     */
+    long getWriteLatency99thPercentile();
+
+    /**
+     * 計測した値を全て0に戻します.
+     */
+    void reset();
+
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.UUID;
+
+/**
+ * Movement.
+ * {@link MovementListener}に通知されるプレイヤーの移動です.
+ *
+ * @author toyblocks
+ */
+public final class Movement {
+
+    private final UUID player;
+    private final Location from, to;
+
+    Movement(UUID player, Location from, Location to) {
+        this.player = player;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * 移動したプレイヤーのUUIDを取得します.
+     * @return プレイヤーのUUID
+     */
+    public UUID getPlayerUUID() {
+        return this.player;
+    }
+
+    /**
+     * 前回通知した位置を取得します.
+     * 返却される位置はこの通知のための複製で、以後更新されません。
+     * @return 前回通知した位置, 初めての通知なら{@code null}
+     */
+    public Location getFrom() {
+        return this.from;
+    }
+
+    /**
+     * 移動後の位置を取得します.
+     * 返却される位置はこの通知のための複製で、以後更新されません。
+     * @return 移動後の位置
+     */
+    public Location getTo() {
+        return this.to;
+    }
+
+    @Override
+    public String toString() {
+        return "Movement{" + "player=" + player + ", from=" + from + ", to=" + to + '}';
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * MovementDispatcher.
+ * Nettyのスレッドでは更新されたプレイヤーの位置をキューに積むだけにとどめ、
+ * 一定周期で別スレッドからまとめて{@link MovementListener}へ通知します。
+ * 周期内に同じプレイヤーが何度移動しても、通知は一つにまとめられます。
+ *
+ * @author toyblocks
+ */
+public final class MovementDispatcher {
+
+    private static final long DEFAULT_PERIOD_MILLIS = 50L;
+    private static final AtomicIntegerFieldUpdater<Location> QUEUED = AtomicIntegerFieldUpdater.newUpdater(Location.class, "queued");
+    private static final Queue<Location> queue = new ConcurrentLinkedQueue<>();
+    private static final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+    private static Plugin owner;
+    private static ScheduledTask task;
+
+    private MovementDispatcher() {
+    }
+
+    /**
+     * 移動の通知を受け取るリスナを登録します.
+     * 前回通知した位置からの移動量がいずれの閾値にも満たない場合は通知されません。
+     * @param listener リスナ
+     * @param minDistance 通知する最小の移動距離
+     * @param minAngle 通知する最小の視点の角度変化
+     */
+    public static void subscribe(MovementListener listener, double minDistance, float minAngle) {
+        subscribers.add(new Subscriber(Objects.requireNonNull(listener), minDistance, minAngle));
+        LocationDemand.update();
+    }
+
+    /**
+     * リスナの登録を解除します.
+     * @param listener リスナ
+     * @return trueならば解除した、falseなら登録されていなかった
+     */
+    public static boolean unsubscribe(MovementListener listener) {
+        for (Subscriber s : subscribers) {
+            if (s.listener == listener) {
+                boolean removed = subscribers.remove(s);
+                LocationDemand.update();
+                return removed;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 通知の周期を設定します.
+     * @param period 周期
+     * @param unit 周期の単位
+     */
+    public static synchronized void setPeriod(long period, TimeUnit unit) {
+        if (period <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        if (owner == null) {
+            throw new IllegalStateException("LocationAPI is not initialized");
+        }
+        stop();
+        schedule(owner, period, unit);
+    }
+
+    static synchronized void start(Plugin plugin) {
+        owner = plugin;
+        schedule(plugin, DEFAULT_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    static synchronized void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    private static void schedule(Plugin plugin, long period, TimeUnit unit) {
+        task = plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                dispatch();
+            }
+
+        }, period, period, unit);
+    }
+
+    //リスナが登録されているか. LocationDemandが参照する
+    static boolean hasSubscribers() {
+        return !subscribers.isEmpty();
+    }
+
+    /**
+     * 位置の更新をキューに積みます.
+     * 既に積まれているプレイヤーは積み直さないため、周期内の更新は一つにまとめられます。
+     * リスナがいなければ何もしません。
+     * @param loc 更新された位置
+     */
+    static void offer(Location loc) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        if (QUEUED.compareAndSet(loc, 0, 1)) {
+            queue.offer(loc);
+        }
+    }
+
+    static synchronized void dispatch() {
+        if (queue.isEmpty()) {
+            return;
+        }
+        List<Subscriber> targets = new ArrayList<>(subscribers);
+        for (Subscriber s : targets) {
+            s.batch = new ArrayList<>();
+        }
+        Location snapshot = Location.of(Double.NaN, Double.NaN, Double.NaN);
+        Location loc;
+        while ((loc = queue.poll()) != null) {
+            //以降の更新は再びキューに積まれるよう、読み取る前に解除する
+            QUEUED.set(loc, 0);
+            UUID player = loc.getPlayerUUID();
+            if (Location.lookup(player) != loc) {
+                for (Subscriber s : targets) {
+                    s.delivered.remove(player);
+                }
+                continue;
+            }
+            loc.copyTo(snapshot);
+            for (Subscriber s : targets) {
+                Location from = s.delivered.get(player);
+                if (from == null || s.exceeds(from, snapshot)) {
+                    Location to = snapshot.clone();
+                    s.delivered.put(player, to);
+                    s.batch.add(new Movement(player, from, to));
+                }
+            }
+        }
+        for (Subscriber s : targets) {
+            if (s.batch.isEmpty()) {
+                continue;
+            }
+            try {
+                s.listener.onMove(s.batch);
+            } catch (RuntimeException ex) {
+                owner.getLogger().log(Level.WARNING, "Failed to dispatch movements to " + s.listener, ex);
+            }
+        }
+    }
+
+    private static final class Subscriber {
+
+        private final MovementListener listener;
+        private final double minDistanceSquared;
+        private final float minAngle;
+        //ディスパッチャのスレッドのみが触れる
+        private final Map<UUID, Location> delivered = new HashMap<>();
+        private List<Movement> batch;
+
+        private Subscriber(MovementListener listener, double minDistance, float minAngle) {
+            this.listener = listener;
+            this.minDistanceSquared = minDistance * minDistance;
+            this.minAngle = minAngle;
+        }
+
+        private boolean exceeds(Location from, Location to) {
+            if (from.getWorld() != to.getWorld()
+                    || Double.isNaN(from.getX()) != Double.isNaN(to.getX())) {
+                return true;
+            }
+            return from.distanceSquared(to) >= this.minDistanceSquared
+                    || Math.abs(from.getYaw() - to.getYaw()) >= this.minAngle
+                    || Math.abs(from.getPitch() - to.getPitch()) >= this.minAngle;
+        }
+    }
+
+}
@@ -0,0 +1,450 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * MovementJournal.
+ * 位置の更新を固定長のレコードとしてメモリマップされたセグメントファイルへ追記します。
+ * Nettyのスレッドは事前に確保されたリングバッファへ値を書き込むだけで、
+ * ファイルへの書き込みは単一の書き込みスレッドが行います。
+ * リングバッファが溢れた場合、Nettyのスレッドを待たせずにレコードを破棄し、その数を数えます。
+ * セグメントが一杯になると次のセグメントへ切り替え、書き終えたセグメントは使用した長さに切り詰めます。
+ * セグメント数が上限を超えると古いものから削除します。
+ * 各セグメントの先頭にはその時点のスロットとワールドの対応を書き込むため、
+ * 古いセグメントが削除されても残ったセグメントだけでレコードを解決できます。
+ * <p>
+ * レコードはビッグエンディアンで、先頭から
+ * スロット(int), ワールドの番号(int), エポックからのナノ秒(long), x, y, z(double), yaw, pitch(float)
+ * の48バイトです。ワールドの番号が負のレコードは、スロットまたはワールドの番号とUUIDの対応を表します。
+ *
+ * @author toyblocks
+ */
+public final class MovementJournal {
+
+    /**
+     * レコードの大きさ
+     */
+    public static final int RECORD_SIZE = 48;
+    private static final int MAGIC = 0x4C41504A;//LAPJ
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int TYPE_PLAYER = -1, TYPE_WORLD = -2;
+    private static final String PREFIX = "journal-", SUFFIX = ".seg";
+    private static final int RING_SIZE = 1 << 13;
+    private static final long IDLE_PARK_NANOS = 1_000_000L;
+    private static final Logger logger = Logger.getLogger(MovementJournal.class.getName());
+    private static volatile MovementJournal current;
+
+    /**
+     * 記録を開始します.
+     * 既存のセグメントには追記せず、新たなセグメントから書き込みます。
+     * 既に記録している場合は、そのジャーナルを閉じてから開始します。
+     * @param directory セグメントを置くディレクトリ
+     * @param segmentSize セグメントの大きさ(バイト)
+     * @param maxSegments 保持するセグメント数の上限
+     * @throws IOException セグメントを作成できなかった
+     */
+    public static synchronized void open(File directory, int segmentSize, int maxSegments) throws IOException {
+        if (segmentSize < HEADER_SIZE + RECORD_SIZE || maxSegments < 1) {
+            throw new IllegalArgumentException("Too small journal");
+        }
+        close();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create " + directory);
+        }
+        File[] existing = segments(directory);
+        long sequence = existing.length == 0 ? 0L : sequenceOf(existing[existing.length - 1]) + 1L;
+        MovementJournal journal = new MovementJournal(directory, segmentSize, maxSegments, sequence);
+        current = journal;
+        journal.writer.start();
+        LocationDemand.update();
+    }
+
+    /**
+     * 記録を終了します.
+     * リングバッファに残っているレコードを書き出してから閉じます。
+     */
+    public static synchronized void close() {
+        MovementJournal journal = current;
+        if (journal == null) {
+            return;
+        }
+        current = null;
+        LocationDemand.update();
+        journal.running = false;
+        LockSupport.unpark(journal.writer);
+        boolean interrupted = false;
+        while (journal.writer.isAlive()) {
+            try {
+                journal.writer.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * 記録しているか取得します.
+     * @return {@code true}なら記録している、falseならしていない
+     */
+    public static boolean isOpen() {
+        return current != null;
+    }
+
+    /**
+     * リングバッファが溢れて破棄されたレコードの数を取得します.
+     * @return 現在のジャーナルで破棄された数. 記録していなければ0
+     */
+    public static long getDropped() {
+        MovementJournal journal = current;
+        return journal == null ? 0L : journal.dropped.get();
+    }
+
+    /**
+     * 位置をジャーナルに記録します.
+     * 位置を更新するスレッド(そのプレイヤーのイベントループ)から呼び出す必要があります。
+     * @param loc 更新された位置
+     */
+    static void append(Location loc) {
+        MovementJournal journal = current;
+        int slot = loc.getSlot();
+        if (journal == null || slot < 0) {
+            return;
+        }
+        journal.offer(slot, loc.getWorld().getIndex(),
+                Double.doubleToRawLongBits(loc.getX()), Double.doubleToRawLongBits(loc.getY()), Double.doubleToRawLongBits(loc.getZ()),
+                Float.floatToRawIntBits(loc.getYaw()), Float.floatToRawIntBits(loc.getPitch()));
+    }
+
+    //スロットが割り当てられたプレイヤー
+    static void bind(int slot, UUID player) {
+        MovementJournal journal = current;
+        if (journal != null) {
+            journal.offer(slot, TYPE_PLAYER, player.getMostSignificantBits(), player.getLeastSignificantBits(), 0L, 0, 0);
+        }
+    }
+
+    //番号が割り当てられたワールド. UUIDがなければ0, ディメンションがなければ0x7FFFFFFFを書く
+    static void bind(World world) {
+        MovementJournal journal = current;
+        if (journal != null) {
+            UUID uuid = world.getUUID();
+            Location.Dimension dimension = world.getDimension();
+            journal.offer(world.getIndex(), TYPE_WORLD,
+                    uuid == null ? 0L : uuid.getMostSignificantBits(), uuid == null ? 0L : uuid.getLeastSignificantBits(), 0L,
+                    dimension == null ? Integer.MAX_VALUE : dimension.getId(), 0);
+        }
+    }
+
+    /**
+     * ディレクトリ内のセグメントを古い順に読み込みます.
+     * セグメントは読み込み専用でメモリマップされ、レコードはコピーされることなく訪問者に渡されます。
+     * @param directory セグメントのあるディレクトリ
+     * @param visitor 訪問者
+     * @throws IOException セグメントを読み込めなかった
+     */
+    public static void read(File directory, Visitor visitor) throws IOException {
+        for (File segment : segments(directory)) {
+            readSegment(segment, visitor);
+        }
+    }
+
+    /**
+     * 一つのセグメントを読み込みます.
+     * @param segment セグメント
+     * @param visitor 訪問者
+     * @throws IOException セグメントを読み込めなかった、またはセグメントではない
+     */
+    public static void readSegment(File segment, Visitor visitor) throws IOException {
+        MappedByteBuffer buf;
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r"); FileChannel channel = file.getChannel()) {
+            buf = channel.map(FileChannel.MapMode.READ_ONLY, 0L, channel.size());
+        }
+        if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != FORMAT_VERSION || buf.getInt(8) != RECORD_SIZE) {
+            throw new IOException("Not a journal segment: " + segment);
+        }
+        for (int p = HEADER_SIZE; p + RECORD_SIZE <= buf.limit(); p += RECORD_SIZE) {
+            long time = buf.getLong(p + 8);
+            if (time == 0L) {
+                break;//書き込まれていない領域
+            }
+            int slot = buf.getInt(p), world = buf.getInt(p + 4);
+            if (world == TYPE_PLAYER) {
+                visitor.player(slot, time, new UUID(buf.getLong(p + 16), buf.getLong(p + 24)));
+            } else if (world == TYPE_WORLD) {
+                long msb = buf.getLong(p + 16), lsb = buf.getLong(p + 24);
+                visitor.world(slot, time, msb == 0L && lsb == 0L ? null : new UUID(msb, lsb), Location.Dimension.ofId(buf.getInt(p + 40)));
+            } else {
+                visitor.position(slot, time, world, buf.getDouble(p + 16), buf.getDouble(p + 24), buf.getDouble(p + 32),
+                        buf.getFloat(p + 40), buf.getFloat(p + 44));
+            }
+        }
+    }
+
+    private static File[] segments(File directory) {
+        File[] result = directory.listFiles(new FileFilter() {
+
+            @Override
+            public boolean accept(File file) {
+                String name = file.getName();
+                return file.isFile() && name.startsWith(PREFIX) && name.endsWith(SUFFIX);
+            }
+
+        });
+        if (result == null) {
+            return new File[0];
+        }
+        Arrays.sort(result, new Comparator<File>() {
+
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(sequenceOf(o1), sequenceOf(o2));
+            }
+
+        });
+        return result;
+    }
+
+    private static long sequenceOf(File segment) {
+        String name = segment.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException ex) {
+            return -1L;
+        }
+    }
+
+    private final File directory;
+    private final int segmentSize, maxSegments;
+    private final long baseEpochNanos = System.currentTimeMillis() * 1_000_000L, baseNanos = System.nanoTime();
+    //リングバッファ. claimedまでを書き込み側が確保し、consumedまでを書き込みスレッドが読み終えている
+    private final AtomicLong claimed = new AtomicLong(), consumed = new AtomicLong(), dropped = new AtomicLong();
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private final int[] slots = new int[RING_SIZE], worlds = new int[RING_SIZE], yaws = new int[RING_SIZE], pitches = new int[RING_SIZE];
+    private final long[] times = new long[RING_SIZE], as = new long[RING_SIZE], bs = new long[RING_SIZE], cs = new long[RING_SIZE];
+    private final Thread writer;
+    private volatile boolean running = true;
+    //以下は書き込みスレッドのみが触れる
+    private long sequence;
+    private File segment;
+    private MappedByteBuffer buffer;
+
+    private MovementJournal(File directory, int segmentSize, int maxSegments, long sequence) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize - (segmentSize - HEADER_SIZE) % RECORD_SIZE;
+        this.maxSegments = maxSegments;
+        this.sequence = sequence;
+        for (int i = 0; i < RING_SIZE; i++) {
+            this.published.set(i, -1L);
+        }
+        this.roll();
+        this.writer = new Thread(new Runnable() {
+
+            @Override
+            public void run() {
+                drain();
+            }
+
+        }, "LocationAPI Journal Writer");
+        this.writer.setDaemon(true);
+    }
+
+    private void offer(int slot, int world, long a, long b, long c, int yaw, int pitch) {
+        long seq;
+        do {
+            seq = this.claimed.get();
+            if (seq - this.consumed.get() >= RING_SIZE) {
+                this.dropped.incrementAndGet();
+                return;
+            }
+        } while (!this.claimed.compareAndSet(seq, seq + 1));
+        int i = (int) seq & (RING_SIZE - 1);
+        this.slots[i] = slot;
+        this.worlds[i] = world;
+        this.times[i] = this.baseEpochNanos + (System.nanoTime() - this.baseNanos);
+        this.as[i] = a;
+        this.bs[i] = b;
+        this.cs[i] = c;
+        this.yaws[i] = yaw;
+        this.pitches[i] = pitch;
+        this.published.set(i, seq);
+    }
+
+    private void drain() {
+        long seq = this.consumed.get();
+        try {
+            for (;;) {
+                int i = (int) seq & (RING_SIZE - 1);
+                if (this.published.get(i) != seq) {
+                    if (!this.running && this.claimed.get() == seq) {
+                        break;
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                if (this.buffer.remaining() < RECORD_SIZE) {
+                    this.finish();
+                    this.roll();
+                    //対応だけでセグメントが埋まるなら、切り替えを繰り返しても書き込めない
+                    if (this.buffer.remaining() < RECORD_SIZE) {
+                        throw new IOException("Journal segment is too small to hold the current bindings");
+                    }
+                }
+                this.put(this.slots[i], this.worlds[i], this.times[i], this.as[i], this.bs[i], this.cs[i], this.yaws[i], this.pitches[i]);
+                this.consumed.set(++seq);
+            }
+            this.finish();
+        } catch (IOException | RuntimeException ex) {
+            logger.log(Level.SEVERE, "Failed to write movement journal, stopped recording", ex);
+            if (current == this) {
+                current = null;
+                LocationDemand.update();
+            }
+        }
+    }
+
+    private void roll() throws IOException {
+        this.segment = new File(this.directory, String.format("%s%016d%s", PREFIX, this.sequence++, SUFFIX));
+        try (RandomAccessFile file = new RandomAccessFile(this.segment, "rw"); FileChannel channel = file.getChannel()) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0L, this.segmentSize);
+        }
+        this.buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(RECORD_SIZE).putInt(0);
+        this.putBindings();
+        File[] all = segments(this.directory);
+        for (int i = 0; i < all.length - this.maxSegments; i++) {
+            if (!all[i].delete()) {
+                logger.log(Level.WARNING, "Failed to delete old journal segment {0}", all[i]);
+            }
+        }
+    }
+
+    private void put(int slot, int world, long time, long a, long b, long c, int yaw, int pitch) {
+        MappedByteBuffer buf = this.buffer;
+        buf.putInt(slot);
+        buf.putInt(world);
+        buf.putLong(time);
+        buf.putLong(a);
+        buf.putLong(b);
+        buf.putLong(c);
+        buf.putInt(yaw);
+        buf.putInt(pitch);
+    }
+
+    //再生時にスロットとワールドを解決できるよう、現在の対応をセグメントの先頭に書き出す.
+    //以降の割り当てはリングバッファを通して記録される. 書ききれない分は切り捨てる
+    private void putBindings() {
+        long time = this.baseEpochNanos + (System.nanoTime() - this.baseNanos);
+        for (World world : World.getInterned()) {
+            if (this.buffer.remaining() < RECORD_SIZE) {
+                return;
+            }
+            UUID uuid = world.getUUID();
+            Location.Dimension dimension = world.getDimension();
+            this.put(world.getIndex(), TYPE_WORLD, time,
+                    uuid == null ? 0L : uuid.getMostSignificantBits(), uuid == null ? 0L : uuid.getLeastSignificantBits(), 0L,
+                    dimension == null ? Integer.MAX_VALUE : dimension.getId(), 0);
+        }
+        int capacity = LocationStore.getCapacity();
+        for (int slot = 0; slot < capacity; slot++) {
+            Location owner = LocationStore.page(slot).getOwner(slot);
+            if (owner == null) {
+                continue;
+            }
+            if (this.buffer.remaining() < RECORD_SIZE) {
+                return;
+            }
+            UUID player = owner.getPlayerUUID();
+            this.put(slot, TYPE_PLAYER, time, player.getMostSignificantBits(), player.getLeastSignificantBits(), 0L, 0, 0);
+        }
+    }
+
+    //書き終えたセグメントを永続化し、使わなかった末尾を切り詰める
+    private void finish() throws IOException {
+        this.buffer.force();
+        long used = this.buffer.position();
+        this.buffer = null;
+        try (RandomAccessFile file = new RandomAccessFile(this.segment, "rw"); FileChannel channel = file.getChannel()) {
+            channel.truncate(used);
+        } catch (IOException ex) {
+            //マップされたままのファイルを切り詰められない環境では、末尾は0のまま残る
+            logger.log(Level.FINE, "Failed to truncate journal segment " + this.segment, ex);
+        }
+    }
+
+    /**
+     * ジャーナルのレコードの訪問者.
+     */
+    public interface Visitor {
+
+        /**
+         * 位置のレコードを訪問します.
+         * @param slot プレイヤーのスロット. {@link #player(int, long, java.util.UUID) }で対応付けられます
+         * @param time エポックからのナノ秒
+         * @param world ワールドの番号. {@link #world(int, long, java.util.UUID, jp.llv.locapi.Location.Dimension) }で対応付けられます
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         */
+        void position(int slot, long time, int world, double x, double y, double z, float yaw, float pitch);
+
+        /**
+         * スロットとプレイヤーの対応を訪問します.
+         * 以降のレコードのスロットは、次に対応付けられるまでこのプレイヤーを表します。
+         * @param slot スロット
+         * @param time エポックからのナノ秒
+         * @param player プレイヤーのUUID
+         */
+        void player(int slot, long time, UUID player);
+
+        /**
+         * ワールドの番号とワールドの対応を訪問します.
+         * @param world ワールドの番号
+         * @param time エポックからのナノ秒
+         * @param uuid ワールドのUUID. 通知されていないワールドであれば{@code null}
+         * @param dimension ディメンション. 不明であれば{@code null}
+         */
+        void world(int world, long time, UUID uuid, Location.Dimension dimension);
+    }
+
+}
@@ -23,23 +23,26 @@
  */
 package jp.llv.locapi;
 
+import io.netty.buffer.ByteBuf;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.ChannelPromise;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
 import java.lang.reflect.Field;
-import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.NoSuchElementException;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.netty.ChannelWrapper;
 import net.md_5.bungee.netty.PipelineUtils;
 import net.md_5.bungee.protocol.DefinedPacket;
 import net.md_5.bungee.protocol.PacketWrapper;
-import net.md_5.bungee.protocol.packet.Login;
-import net.md_5.bungee.protocol.packet.PluginMessage;
-import net.md_5.bungee.protocol.packet.Respawn;
 
 /**
  * ProtocolListener. note: this is not implementation of
@@ -50,11 +53,36 @@ import net.md_5.bungee.protocol.packet.Respawn;
 public class PacketHandler extends ChannelDuplexHandler {
 
     private static final String PACKET_LISTENER = "packet_listener_player";
-    private static final String WORLD_MESSAGE_TAG = "LAPIW";
+    static final String WORLD_MESSAGE_TAG = "LAPIW";
+    private static final byte[] WORLD_MESSAGE_TAG_BYTES = WORLD_MESSAGE_TAG.getBytes(StandardCharsets.UTF_8);
+    //LAPIWメッセージの形式. 先頭にバージョンと種類を持つ
+    private static final byte WORLD_PROTOCOL_VERSION = 1;
+    private static final byte WORLD_TYPE_WORLDS = 0, WORLD_TYPE_CHANGE = 1;
+    private static final int MAX_WORLDS = 1024;
+    private static final World[] NO_WORLDS = new World[0];
+    //UserConnection.chのgetter. 初回に一度だけ解決する
+    private static volatile MethodHandle channelGetter;
+    //パイプラインに追加されているハンドラ. 移動の処理を再開する際に使う
+    private static final Set<PacketHandler> handlers
+            = Collections.newSetFromMap(new ConcurrentHashMap<PacketHandler, Boolean>());
 
     protected static void handle(ProxiedPlayer player) {
         ChannelPipeline chp = getPipeline(player);
-        chp.addBefore(PipelineUtils.BOSS_HANDLER, PACKET_LISTENER, new PacketHandler(player));
+        chp.addBefore(PipelineUtils.BOSS_HANDLER, PACKET_LISTENER,
+                new PacketHandler(player, ProtocolMapping.of(player.getPendingConnection().getVersion())));
+    }
+
+    //接続先のサーバーが変わると、ワールドの番号は新しいサーバーから通知し直される
+    protected static void connected(ProxiedPlayer player, String server) {
+        PacketHandler handler = of(player);
+        if (handler != null) {
+            handler.connected(server);
+        }
+    }
+
+    //プレイヤーのパケットを処理しているハンドラ. なければnull
+    static PacketHandler of(ProxiedPlayer player) {
+        return (PacketHandler) getPipeline(player).get(PACKET_LISTENER);
     }
 
     protected static void unhandle(ProxiedPlayer player) {
@@ -66,59 +94,405 @@ public class PacketHandler extends ChannelDuplexHandler {
         }
     }
 
+    //保留している移動を各プレイヤーのイベントループで反映する
+    static void wakeAll() {
+        for (PacketHandler handler : handlers) {
+            handler.wake();
+        }
+    }
+
     private static ChannelPipeline getPipeline(ProxiedPlayer player) {
         try {
-            Field fCh = player.getClass().getDeclaredField("ch");
-            fCh.setAccessible(true);
-            return ((ChannelWrapper) fCh.get(player)).getHandle().pipeline();
-        } catch (NoSuchFieldException | SecurityException | IllegalArgumentException | IllegalAccessException | ClassCastException ex) {
-            throw new IllegalArgumentException("Not supported proxied player type");
+            return ((ChannelWrapper) getChannelGetter(player.getClass()).invoke(player)).getHandle().pipeline();
+        } catch (Throwable ex) {
+            throw new IllegalArgumentException("Not supported proxied player type", ex);
+        }
+    }
+
+    private static MethodHandle getChannelGetter(Class<?> type) throws ReflectiveOperationException {
+        MethodHandle getter = channelGetter;
+        if (getter != null && getter.type().parameterType(0) == type) {
+            return getter;
         }
+        Field fCh = type.getDeclaredField("ch");
+        fCh.setAccessible(true);
+        getter = MethodHandles.lookup().unreflectGetter(fCh);
+        channelGetter = getter;
+        return getter;
     }
 
     private final ProxiedPlayer player;
+    private final ProtocolMapping mapping;
+    private final RegionManager.Tracker regions = new RegionManager.Tracker();
+    private final AnomalyDetector.Tracker anomalies;
+    //接続中のサーバーとそこから通知されたワールドの一覧. ワールドは番号で引く
+    private volatile String server;
+    private volatile World[] worlds = NO_WORLDS;
+    //LAPIWメッセージを読み取る位置
+    private int cursor;
+    //計測値. プレイヤーのイベントループからのみ書き込む
+    private volatile long movementPackets = 0L;
+    //直近1秒の計測値. Metricsの周期処理からのみ書き込む
+    private volatile long movementPacketRate = 0L;
+    private long lastMovementPackets = 0L;
+    //接続先サーバーの需要. 誰も位置を必要としない間は索引などへの反映を保留する
+    private volatile LocationDemand.Server demand;
+    private volatile ChannelHandlerContext context;
+    //反映を保留している移動があるか. プレイヤーのイベントループからのみ読み書きする
+    private boolean pending;
+    private final Runnable flush = new Runnable() {
+        @Override
+        public void run() {
+            flushPending();
+        }
+    };
+    private final Runnable reconnect = new Runnable() {
+        @Override
+        public void run() {
+            Location loc = Location.lookup(player.getUniqueId());
+            if (loc != null) {
+                //前のサーバーの領域からは、同じワールドであっても出たものとする
+                flushPending();
+                RegionManager.leaveAll(player, loc, regions);
+                resetWorld(loc.getDimension());
+            }
+        }
+    };
 
-    protected PacketHandler(ProxiedPlayer player) {
+    protected PacketHandler(ProxiedPlayer player, ProtocolMapping mapping) {
         this.player = player;
+        this.mapping = mapping;
+        this.anomalies = new AnomalyDetector.Tracker(player);
+    }
+
+    void connected(String server) {
+        this.server = server;
+        this.worlds = NO_WORLDS;
+        this.demand = LocationDemand.of(server);
+        ChannelHandlerContext ctx = this.context;
+        if (ctx != null) {
+            ctx.executor().execute(this.reconnect);
+        }
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        this.context = ctx;
+        handlers.add(this);
+        super.handlerAdded(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        handlers.remove(this);
+        this.context = null;
+        super.handlerRemoved(ctx);
     }
 
     @Override
     public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
-        DefinedPacket p = ((PacketWrapper) msg).packet;
-        if (p instanceof PlayerPositionAndLook) {
-            PlayerPositionAndLook pos = (PlayerPositionAndLook) p;
-            Location.of(player).update(pos.getX(), pos.getY(), pos.getZ(), false).update(pos.getYaw(), pos.getPitch());
-        } else if (p instanceof Login) {
-            Login pos = (Login) p;
-            Location.of(player).update(Location.Dimension.ofId(pos.getDimension()));
-        } else if (p instanceof Respawn) {
-            Respawn pos = (Respawn) p;
-            Location.of(player).update(Location.Dimension.ofId(pos.getDimension()));
+        if (Metrics.enabled) {
+            long start = System.nanoTime();
+            this.outbound(msg);
+            Metrics.get().writeLatency.record(System.nanoTime() - start);
+        } else {
+            this.outbound(msg);
         }
         super.write(ctx, msg, promise);
     }
 
+    private void outbound(Object msg) {
+        if (msg instanceof PacketWrapper) {
+            this.dispatch(this.mapping.outbound, (PacketWrapper) msg);
+        } else if (msg instanceof DefinedPacket) {
+            ProtocolMapping.Action action = ProtocolMapping.getOutboundDefined(msg.getClass());
+            if (action != null) {
+                action.handle(this, (DefinedPacket) msg, null, 0);
+            }
+        }
+    }
+
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
-        DefinedPacket p = ((PacketWrapper) msg).packet;
-        if (p instanceof PlayerPosition) {
-            PlayerPosition pos = (PlayerPosition) p;
-            Location.getOrCreateOf(player).update(pos.getX(), pos.getY(), pos.getZ(), pos.isOnGround());
-        } else if (p instanceof PlayerLook) {
-            PlayerLook pos = (PlayerLook) p;
-            Location.getOrCreateOf(player).update(pos.getYaw(), pos.getPitch());
-        } else if (p instanceof PluginMessage) {
-            PluginMessage pos = (PluginMessage) p;
-            if (pos.getTag().equals(WORLD_MESSAGE_TAG)) {
-                ByteBuffer buf = ByteBuffer.wrap(pos.getData());
-                UUID uuid = new UUID(buf.getLong(), buf.getLong());
-                byte[] ary = new byte[buf.remaining()];
-                buf.get(ary);
-                String name = new String(ary, Charset.forName("UTF-8"));
-                Location.getOrCreateOf(player).update(uuid, name);
+        if (msg instanceof PacketWrapper) {
+            if (Metrics.enabled) {
+                long start = System.nanoTime();
+                this.dispatch(this.mapping.inbound, (PacketWrapper) msg);
+                Metrics.get().readLatency.record(System.nanoTime() - start);
+            } else {
+                this.dispatch(this.mapping.inbound, (PacketWrapper) msg);
             }
         }
         super.channelRead(ctx, msg);
     }
 
+    long getMovementPackets() {
+        return this.movementPackets;
+    }
+
+    long getMovementPacketRate() {
+        return this.movementPacketRate;
+    }
+
+    static void sampleMovementRates() {
+        for (PacketHandler handler : handlers) {
+            long packets = handler.movementPackets;
+            handler.movementPacketRate = packets - handler.lastMovementPackets;
+            handler.lastMovementPackets = packets;
+        }
+    }
+
+    private void countMovement() {
+        if (Metrics.enabled) {
+            this.movementPackets++;
+            Metrics.get().movementPackets.increment();
+        }
+    }
+
+    //読み取り位置は動かさないため、転送されるパケットには影響しない
+    private void dispatch(ProtocolMapping.Action[] table, PacketWrapper wrapper) {
+        ByteBuf buf = wrapper.buf;
+        int index = buf.readerIndex();
+        if (!buf.isReadable()) {
+            return;
+        }
+        //2バイト以上のVarIntは負の値になり、表の範囲外となる
+        int id = buf.getByte(index);
+        if (id < 0) {
+            return;
+        }
+        ProtocolMapping.Action action = table[id];
+        if (action != null) {
+            action.handle(this, wrapper.packet, buf, index);
+        }
+    }
+
+    //クライアントからの移動パケットは、座標が変わらなくても速度の推定の標本とする
+    void ground(boolean onGround) {
+        this.countMovement();
+        if (LocationDemand.isDemanded(this.demand)) {
+            this.flushPending();
+        }
+        Location.getOrCreateOf(player).update(onGround).sample(System.nanoTime());
+    }
+
+    void position(double x, double y, double z, boolean onGround) {
+        this.countMovement();
+        long now = System.nanoTime();
+        if (!LocationDemand.isDemanded(this.demand)) {
+            Location.getOrCreateOf(player).update(x, y, z, onGround).sample(now);
+            this.pending = true;
+            return;
+        }
+        this.flushPending();
+        this.anomalies.moved(x, y, z, onGround, now);
+        Location loc = Location.getOrCreateOf(player).update(x, y, z, onGround);
+        loc.sample(now);
+        this.moved(loc);
+    }
+
+    void look(float yaw, float pitch, boolean onGround) {
+        this.countMovement();
+        Location loc = Location.getOrCreateOf(player).update(yaw, pitch, onGround);
+        loc.sample(System.nanoTime());
+        if (!LocationDemand.isDemanded(this.demand)) {
+            this.pending = true;
+            return;
+        }
+        this.flushPending();
+        loc.touch();
+        LocationHistory.record(loc);
+        MovementJournal.append(loc);
+        MovementDispatcher.offer(loc);
+    }
+
+    void positionAndLook(double x, double y, double z, float yaw, float pitch, boolean onGround) {
+        this.countMovement();
+        long now = System.nanoTime();
+        if (!LocationDemand.isDemanded(this.demand)) {
+            Location.getOrCreateOf(player).update(x, y, z, yaw, pitch, onGround).sample(now);
+            this.pending = true;
+            return;
+        }
+        this.flushPending();
+        this.anomalies.moved(x, y, z, onGround, now);
+        Location loc = Location.getOrCreateOf(player).update(x, y, z, yaw, pitch, onGround);
+        loc.sample(now);
+        this.moved(loc);
+    }
+
+    /**
+     * サーバーからクライアントへのプラグインメッセージを読み取ります.
+     * LAPIWメッセージ以外はタグを文字列にすることなく無視します。
+     * @param buf パケット
+     * @param index タグの位置
+     * @param skip タグとデータの間にあるバイト数
+     */
+    void receivedPluginMessage(ByteBuf buf, int index, int skip) {
+        int end = buf.writerIndex();
+        if (end - index < 1 + WORLD_MESSAGE_TAG_BYTES.length + skip + 2 || buf.getByte(index) != WORLD_MESSAGE_TAG_BYTES.length) {
+            return;
+        }
+        for (int i = 0; i < WORLD_MESSAGE_TAG_BYTES.length; i++) {
+            if (buf.getByte(index + 1 + i) != WORLD_MESSAGE_TAG_BYTES[i]) {
+                return;
+            }
+        }
+        this.cursor = index + 1 + WORLD_MESSAGE_TAG_BYTES.length + skip;
+        boolean read = this.readWorldMessage(buf, end);
+        if (Metrics.enabled) {
+            Metrics.get().worldMessages.increment();
+            if (!read) {
+                Metrics.get().worldMessageFailures.increment();
+            }
+        }
+    }
+
+    //LAPIWメッセージの本体を読み取る. 不正な内容であればfalseを返す
+    private boolean readWorldMessage(ByteBuf buf, int end) {
+        if (buf.getByte(this.cursor++) != WORLD_PROTOCOL_VERSION) {
+            return false;
+        }
+        byte type = buf.getByte(this.cursor++);
+        if (type == WORLD_TYPE_CHANGE) {
+            int world = this.readVarInt(buf, end);
+            World[] known = this.worlds;
+            if (world < 0 || world >= known.length || known[world] == null) {
+                return false;
+            }
+            this.flushPending();
+            Location loc = Location.getOrCreateOf(player).update(known[world]);
+            loc.clearMotion();
+            this.anomalies.reset();
+            this.moved(loc);
+            return true;
+        } else if (type == WORLD_TYPE_WORLDS) {
+            int count = this.readVarInt(buf, end);
+            if (count < 0) {
+                return false;
+            }
+            for (; count > 0; count--) {
+                int world = this.readVarInt(buf, end);
+                if (world < 0 || world >= MAX_WORLDS || end - this.cursor < 17) {
+                    return false;
+                }
+                UUID uuid = new UUID(buf.getLong(this.cursor), buf.getLong(this.cursor + 8));
+                Location.Dimension dimension = Location.Dimension.ofId(buf.getByte(this.cursor + 16));
+                this.cursor += 17;
+                int length = this.readVarInt(buf, end);
+                if (length < 0 || end - this.cursor < length) {
+                    return false;
+                }
+                String name = buf.toString(this.cursor, length, StandardCharsets.UTF_8);
+                this.cursor += length;
+                World[] known = this.worlds;
+                if (world >= known.length) {
+                    known = Arrays.copyOf(known, world + 1);
+                }
+                known[world] = World.announce(uuid, name, dimension, this.server);
+                this.worlds = known;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    //不正な値であれば-1を返す
+    private int readVarInt(ByteBuf buf, int end) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            if (this.cursor >= end) {
+                return -1;
+            }
+            byte b = buf.getByte(this.cursor++);
+            result |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        return -1;
+    }
+
+    //参加時は復元された位置や前回のワールドを引き継がない
+    void joined(int id) {
+        this.resetWorld(Location.Dimension.ofId(id));
+    }
+
+    //前のサーバーのワールドに留まらないよう、ディメンションが同じでもワールドを置き換える.
+    //新しいサーバーから通知されるまではディメンション毎のワールドとなる
+    private void resetWorld(Location.Dimension dimension) {
+        this.flushPending();
+        Location loc = Location.getOrCreateOf(player);
+        World world = World.of(dimension);
+        if (loc.getWorld() == world) {
+            return;
+        }
+        loc.update(world);
+        loc.clearMotion();
+        this.anomalies.reset();
+        this.moved(loc);
+    }
+
+    void changedDimension(int id) {
+        this.flushPending();
+        Location loc = Location.getOrCreateOf(player);
+        loc.update(Location.Dimension.ofId(id));
+        loc.clearMotion();
+        this.anomalies.reset();
+        this.moved(loc);
+    }
+
+    //サーバーからの移動. flagのビットが立っている値は現在値からの相対値
+    void teleported(double x, double y, double z, float yaw, float pitch, byte flag) {
+        this.flushPending();
+        Location loc = Location.getOrCreateOf(player);
+        if ((flag & 0x01) != 0) {
+            x += loc.getX();
+        }
+        if ((flag & 0x02) != 0) {
+            y += loc.getY();
+        }
+        if ((flag & 0x04) != 0) {
+            z += loc.getZ();
+        }
+        if ((flag & 0x08) != 0) {
+            yaw += loc.getYaw();
+        }
+        if ((flag & 0x10) != 0) {
+            pitch += loc.getPitch();
+        }
+        loc.update(x, y, z, yaw, pitch, loc.isOnGround());
+        loc.clearMotion();
+        this.anomalies.teleported(x, y, z);
+        this.moved(loc);
+    }
+
+    //保留中の移動があれば最新の位置を索引などへ反映する. 途中の移動は記録されない
+    private void flushPending() {
+        if (!this.pending) {
+            return;
+        }
+        this.pending = false;
+        this.anomalies.reset();
+        this.moved(Location.getOrCreateOf(player));
+    }
+
+    //需要が戻った際に呼ばれる. 保留中の移動はプレイヤーのイベントループで反映する
+    private void wake() {
+        ChannelHandlerContext ctx = this.context;
+        if (ctx != null && LocationDemand.isDemanded(this.demand)) {
+            ctx.executor().execute(this.flush);
+        }
+    }
+
+    //位置またはワールドが更新された後に、索引や領域の判定へ反映する
+    private void moved(Location loc) {
+        loc.touch();
+        SpatialIndex.update(loc);
+        RegionManager.update(this.player, loc, this.regions);
+        LocationHistory.record(loc);
+        MovementJournal.append(loc);
+        MovementDispatcher.offer(loc);
+    }
+
 }
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.Arrays;
+
+/**
+ * PolygonRegion.
+ * 水平面上の多角形を一定の高さの範囲に押し出した領域です。
+ *
+ * @author toyblocks
+ */
+public class PolygonRegion extends Region {
+
+    private final double[] xs, zs;
+
+    /**
+     * 多角形の領域を作成します.
+     * @param name 領域の名前
+     * @param world 領域が属するワールドにある位置
+     * @param xs 頂点のx座標. 順に辺で結ばれます
+     * @param zs 頂点のz座標. 順に辺で結ばれます
+     * @param minY y座標の最小値
+     * @param maxY y座標の最大値
+     */
+    public PolygonRegion(String name, Location world, double[] xs, double[] zs, double minY, double maxY) {
+        super(name, world, min(check(xs, zs)), minY, min(zs), max(xs), maxY, max(zs));
+        this.xs = Arrays.copyOf(xs, xs.length);
+        this.zs = Arrays.copyOf(zs, zs.length);
+    }
+
+    private static double[] check(double[] xs, double[] zs) {
+        if (xs.length != zs.length || xs.length < 3) {
+            throw new IllegalArgumentException("A polygon needs at least 3 vertices");
+        }
+        return xs;
+    }
+
+    private static double min(double[] values) {
+        double result = Double.POSITIVE_INFINITY;
+        for (double v : values) {
+            result = Math.min(result, v);
+        }
+        return result;
+    }
+
+    private static double max(double[] values) {
+        double result = Double.NEGATIVE_INFINITY;
+        for (double v : values) {
+            result = Math.max(result, v);
+        }
+        return result;
+    }
+
+    @Override
+    protected boolean containsInBounds(double x, double y, double z) {
+        //交差数判定
+        boolean inside = false;
+        for (int i = 0, j = this.xs.length - 1; i < this.xs.length; j = i++) {
+            double zi = this.zs[i], zj = this.zs[j];
+            if ((zi > z) != (zj > z)
+                    && x < (this.xs[j] - this.xs[i]) * (z - zi) / (zj - zi) + this.xs[i]) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import java.nio.ByteBuffer;
+
+/**
+ * PositionCodec.
+ * 一人のプレイヤーの位置の列を、前の位置からの量子化された差分として符号化します.
+ * 座標は設定された誤差の2倍を単位に量子化され、前の位置との差をzig-zag符号化した可変長整数で書き込みます。
+ * 一定の数毎にキーフレームとして絶対値を書き込むため、途中から復号を始めることもできます。
+ * 水平角度と垂直角度はそれぞれ360度を256段階とした1バイトに詰められます。
+ * <p>
+ * 一つの位置は先頭から
+ * フラグ(byte), 時刻(ミリ秒), x, y, z(可変長整数), 水平角度, 垂直角度(byte)
+ * の順です。符号化も復号も{@link ByteBuf}または{@link ByteBuffer}を直接読み書きし、オブジェクトを生成しません。
+ * 復号には符号化と同じ誤差の設定が必要です。
+ *
+ * @author toyblocks
+ */
+public final class PositionCodec {
+
+    /**
+     * 一つの位置を符号化した大きさの上限
+     */
+    public static final int MAX_ENCODED_SIZE = 1 + 10 * 4 + 2;
+    private static final int KEYFRAME = 1, ON_GROUND = 2;
+    private static final float ANGLE_STEPS = 256F / 360F;
+
+    private final double step;
+    private final int keyframeInterval;
+
+    /**
+     * 符号化の方式を作成します.
+     * @param maxError 座標の誤差の上限. 正の値
+     * @param keyframeInterval キーフレームの間隔. この数の位置毎に絶対値を書き込む
+     */
+    public PositionCodec(double maxError, int keyframeInterval) {
+        if (!(maxError > 0D) || Double.isInfinite(maxError)) {
+            throw new IllegalArgumentException("Invalid error bound: " + maxError);
+        }
+        if (keyframeInterval <= 0) {
+            throw new IllegalArgumentException("Invalid keyframe interval: " + keyframeInterval);
+        }
+        this.step = maxError * 2D;
+        this.keyframeInterval = keyframeInterval;
+    }
+
+    /**
+     * 座標の誤差の上限を取得します.
+     * @return 座標の誤差の上限
+     */
+    public double getMaxError() {
+        return this.step / 2D;
+    }
+
+    /**
+     * キーフレームの間隔を取得します.
+     * @return キーフレームの間隔
+     */
+    public int getKeyframeInterval() {
+        return this.keyframeInterval;
+    }
+
+    /**
+     * 新たな符号化器を作成します.
+     * @return 符号化器
+     */
+    public Encoder newEncoder() {
+        return new Encoder();
+    }
+
+    /**
+     * 新たな復号器を作成します.
+     * @return 復号器
+     */
+    public Decoder newDecoder() {
+        return new Decoder();
+    }
+
+    private long quantize(double value) {
+        return Math.round(value / this.step);
+    }
+
+    private static byte packAngle(float angle) {
+        return (byte) Math.round(angle * ANGLE_STEPS);
+    }
+
+    private static float unpackAngle(byte angle) {
+        return angle / ANGLE_STEPS;
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    private static void writeVarLong(ByteBuf buf, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buf.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buf.writeByte((int) value);
+    }
+
+    private static void writeVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0L) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long readVarLong(ByteBuf buf) {
+        long result = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("VarLong too long");
+    }
+
+    private static long readVarLong(ByteBuffer buf) {
+        long result = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buf.get();
+            result |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return result;
+            }
+        }
+        throw new IllegalArgumentException("VarLong too long");
+    }
+
+    /**
+     * 符号化器.
+     * 一人のプレイヤーの位置を順に符号化します。スレッドセーフではありません。
+     */
+    public final class Encoder {
+
+        private long time, x, y, z;
+        private int count = 0;
+
+        private Encoder() {
+        }
+
+        /**
+         * 次の位置をキーフレームとして符号化させます.
+         * テレポートやワールドの移動など、位置が連続しない時に呼び出します。
+         */
+        public void reset() {
+            this.count = 0;
+        }
+
+        /**
+         * 位置を符号化して書き込みます.
+         * @param buf 書き込み先
+         * @param time 時刻(ミリ秒)
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         * @param onGround 地面の上かどうか
+         */
+        public void encode(ByteBuf buf, long time, double x, double y, double z, float yaw, float pitch, boolean onGround) {
+            long qx = quantize(x), qy = quantize(y), qz = quantize(z);
+            boolean keyframe = this.count++ % keyframeInterval == 0;
+            buf.writeByte((keyframe ? KEYFRAME : 0) | (onGround ? ON_GROUND : 0));
+            if (keyframe) {
+                writeVarLong(buf, zigzag(time));
+                writeVarLong(buf, zigzag(qx));
+                writeVarLong(buf, zigzag(qy));
+                writeVarLong(buf, zigzag(qz));
+            } else {
+                writeVarLong(buf, zigzag(time - this.time));
+                writeVarLong(buf, zigzag(qx - this.x));
+                writeVarLong(buf, zigzag(qy - this.y));
+                writeVarLong(buf, zigzag(qz - this.z));
+            }
+            buf.writeByte(packAngle(yaw));
+            buf.writeByte(packAngle(pitch));
+            this.time = time;
+            this.x = qx;
+            this.y = qy;
+            this.z = qz;
+        }
+
+        /**
+         * 位置を符号化して書き込みます.
+         * @param buf 書き込み先
+         * @param time 時刻(ミリ秒)
+         * @param x x座標
+         * @param y y座標
+         * @param z z座標
+         * @param yaw 水平角度
+         * @param pitch 垂直角度
+         * @param onGround 地面の上かどうか
+         * @throws java.nio.BufferOverflowException 残りが{@link #MAX_ENCODED_SIZE}に満たず、書き込めなかった
+         */
+        public void encode(ByteBuffer buf, long time, double x, double y, double z, float yaw, float pitch, boolean onGround) {
+            long qx = quantize(x), qy = quantize(y), qz = quantize(z);
+            boolean keyframe = this.count++ % keyframeInterval == 0;
+            buf.put((byte) ((keyframe ? KEYFRAME : 0) | (onGround ? ON_GROUND : 0)));
+            if (keyframe) {
+                writeVarLong(buf, zigzag(time));
+                writeVarLong(buf, zigzag(qx));
+                writeVarLong(buf, zigzag(qy));
+                writeVarLong(buf, zigzag(qz));
+            } else {
+                writeVarLong(buf, zigzag(time - this.time));
+                writeVarLong(buf, zigzag(qx - this.x));
+                writeVarLong(buf, zigzag(qy - this.y));
+                writeVarLong(buf, zigzag(qz - this.z));
+            }
+            buf.put(packAngle(yaw));
+            buf.put(packAngle(pitch));
+            this.time = time;
+            this.x = qx;
+            this.y = qy;
+            this.z = qz;
+        }
+
+    }
+
+    /**
+     * 復号器.
+     * 一人のプレイヤーの位置を順に復号し、最後に復号した位置を保持します。スレッドセーフではありません。
+     */
+    public final class Decoder {
+
+        private long time, x, y, z;
+        private float yaw, pitch;
+        private boolean onGround;
+        private boolean synced = false;
+
+        private Decoder() {
+        }
+
+        /**
+         * 位置を一つ読み込みます.
+         * キーフレームより前の差分は適用できないため読み飛ばされます。
+         * @param buf 読み込み元
+         * @return 位置を復号できたなら{@code true}, キーフレームを待っているなら{@code false}
+         */
+        public boolean decode(ByteBuf buf) {
+            int flags = buf.readByte();
+            long t = unzigzag(readVarLong(buf));
+            long dx = unzigzag(readVarLong(buf)), dy = unzigzag(readVarLong(buf)), dz = unzigzag(readVarLong(buf));
+            return this.apply(flags, t, dx, dy, dz, buf.readByte(), buf.readByte());
+        }
+
+        /**
+         * 位置を一つ読み込みます.
+         * キーフレームより前の差分は適用できないため読み飛ばされます。
+         * @param buf 読み込み元
+         * @return 位置を復号できたなら{@code true}, キーフレームを待っているなら{@code false}
+         */
+        public boolean decode(ByteBuffer buf) {
+            int flags = buf.get();
+            long t = unzigzag(readVarLong(buf));
+            long dx = unzigzag(readVarLong(buf)), dy = unzigzag(readVarLong(buf)), dz = unzigzag(readVarLong(buf));
+            return this.apply(flags, t, dx, dy, dz, buf.get(), buf.get());
+        }
+
+        private boolean apply(int flags, long t, long dx, long dy, long dz, byte yaw, byte pitch) {
+            if ((flags & KEYFRAME) != 0) {
+                this.time = t;
+                this.x = dx;
+                this.y = dy;
+                this.z = dz;
+                this.synced = true;
+            } else if (this.synced) {
+                this.time += t;
+                this.x += dx;
+                this.y += dy;
+                this.z += dz;
+            } else {
+                return false;
+            }
+            this.yaw = unpackAngle(yaw);
+            this.pitch = unpackAngle(pitch);
+            this.onGround = (flags & ON_GROUND) != 0;
+            return true;
+        }
+
+        /**
+         * 次の位置をキーフレームまで読み飛ばさせます.
+         */
+        public void reset() {
+            this.synced = false;
+        }
+
+        /**
+         * 最後に復号した位置の時刻を取得します.
+         * @return 時刻(ミリ秒)
+         */
+        public long getTime() {
+            return this.time;
+        }
+
+        /**
+         * 最後に復号した位置のx座標を取得します.
+         * @return x座標
+         */
+        public double getX() {
+            return this.x * step;
+        }
+
+        /**
+         * 最後に復号した位置のy座標を取得します.
+         * @return y座標
+         */
+        public double getY() {
+            return this.y * step;
+        }
+
+        /**
+         * 最後に復号した位置のz座標を取得します.
+         * @return z座標
+         */
+        public double getZ() {
+            return this.z * step;
+        }
+
+        /**
+         * 最後に復号した位置の水平角度を取得します.
+         * 符号化前の角度とは360度の倍数だけ異なることがあります。
+         * @return -180以上180未満の水平角度
+         */
+        public float getYaw() {
+            return this.yaw;
+        }
+
+        /**
+         * 最後に復号した位置の垂直角度を取得します.
+         * @return 垂直角度
+         */
+        public float getPitch() {
+            return this.pitch;
+        }
+
+        /**
+         * 最後に復号した位置が地面の上か取得します.
+         * @return trueなら地面の上、falseならそうでない
+         */
+        public boolean isOnGround() {
+            return this.onGround;
+        }
+
+    }
+
+}
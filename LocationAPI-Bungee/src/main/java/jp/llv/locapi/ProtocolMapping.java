@@ -0,0 +1,235 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import java.util.HashMap;
+import java.util.Map;
+import net.md_5.bungee.protocol.DefinedPacket;
+import net.md_5.bungee.protocol.packet.Login;
+import net.md_5.bungee.protocol.packet.Respawn;
+
+/**
+ * ProtocolMapping.
+ * プロトコルバージョン毎の、パケットIDから処理への対応表です。
+ * 表は起動時に一度だけ構築され、各プレイヤーのハンドラはログイン時に
+ * 自身のバージョンの表を選択するため、パケット毎にバージョンを判定することはありません。
+ *
+ * @author toyblocks
+ */
+final class ProtocolMapping {
+
+    static final int MINECRAFT_1_7_2 = 4, MINECRAFT_1_7_6 = 5, MINECRAFT_1_8 = 47;
+    //1バイトのVarIntで表せるパケットID毎の処理. 関心のないパケットはnull
+    private static final int TABLE_SIZE = 0x80;
+    //1.7のサーバーから送られるy座標は目の高さ
+    private static final double EYE_HEIGHT = 1.62D;
+    private static final Map<Integer, ProtocolMapping> mappings = new HashMap<>();
+    //対応していないバージョンでは何も処理しない
+    static final ProtocolMapping UNSUPPORTED = new ProtocolMapping();
+    //Bungeecordが生成して直接書き込むパケットの処理. バージョンに依存しない
+    private static final Map<Class<? extends DefinedPacket>, Action> outboundDefined = new HashMap<>();
+
+    static {
+        Action login = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (packet instanceof Login) {
+                    handler.joined(((Login) packet).getDimension());
+                }
+            }
+
+        };
+        Action respawn = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (packet instanceof Respawn) {
+                    handler.changedDimension(((Respawn) packet).getDimension());
+                }
+            }
+
+        };
+        Action player = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 2) {
+                    handler.ground(buf.getBoolean(index + 1));
+                }
+            }
+
+        };
+        Action look = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 10) {
+                    handler.look(buf.getFloat(index + 1), buf.getFloat(index + 5), buf.getBoolean(index + 9));
+                }
+            }
+
+        };
+        outboundDefined.put(Login.class, login);
+        outboundDefined.put(Respawn.class, respawn);
+
+        //1.7: 位置にはx, 足のy, 頭のy, zの順で含まれ、サーバーからの移動は常に絶対値
+        ProtocolMapping v1_7 = new ProtocolMapping();
+        v1_7.inbound[0x03] = player;
+        v1_7.inbound[0x04] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 34) {
+                    handler.position(buf.getDouble(index + 1), buf.getDouble(index + 9), buf.getDouble(index + 25), buf.getBoolean(index + 33));
+                }
+            }
+
+        };
+        v1_7.inbound[0x05] = look;
+        v1_7.inbound[0x06] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 42) {
+                    handler.positionAndLook(buf.getDouble(index + 1), buf.getDouble(index + 9), buf.getDouble(index + 25),
+                            buf.getFloat(index + 33), buf.getFloat(index + 37), buf.getBoolean(index + 41));
+                }
+            }
+
+        };
+        v1_7.outbound[0x01] = login;
+        v1_7.outbound[0x07] = respawn;
+        v1_7.outbound[0x08] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf != null && buf.readableBytes() >= 34) {
+                    handler.teleported(buf.getDouble(index + 1), buf.getDouble(index + 9) - EYE_HEIGHT, buf.getDouble(index + 17),
+                            buf.getFloat(index + 25), buf.getFloat(index + 29), (byte) 0);
+                }
+            }
+
+        };
+        v1_7.outbound[0x3F] = new Action() {//PluginMessage: タグ, 長さ, データ
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf != null) {
+                    handler.receivedPluginMessage(buf, index + 1, 2);
+                }
+            }
+
+        };
+        mappings.put(MINECRAFT_1_7_2, v1_7);
+        mappings.put(MINECRAFT_1_7_6, v1_7);
+
+        //1.8: 位置にはx, 足のy, zの順で含まれ、サーバーからの移動はflagによって相対値になる
+        ProtocolMapping v1_8 = new ProtocolMapping();
+        v1_8.inbound[0x03] = player;
+        v1_8.inbound[0x04] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 26) {
+                    handler.position(buf.getDouble(index + 1), buf.getDouble(index + 9), buf.getDouble(index + 17), buf.getBoolean(index + 25));
+                }
+            }
+
+        };
+        v1_8.inbound[0x05] = look;
+        v1_8.inbound[0x06] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf.readableBytes() >= 34) {
+                    handler.positionAndLook(buf.getDouble(index + 1), buf.getDouble(index + 9), buf.getDouble(index + 17),
+                            buf.getFloat(index + 25), buf.getFloat(index + 29), buf.getBoolean(index + 33));
+                }
+            }
+
+        };
+        v1_8.outbound[0x01] = login;
+        v1_8.outbound[0x07] = respawn;
+        v1_8.outbound[0x08] = new Action() {
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf != null && buf.readableBytes() >= 34) {
+                    handler.teleported(buf.getDouble(index + 1), buf.getDouble(index + 9), buf.getDouble(index + 17),
+                            buf.getFloat(index + 25), buf.getFloat(index + 29), buf.getByte(index + 33));
+                }
+            }
+
+        };
+        v1_8.outbound[0x3F] = new Action() {//PluginMessage: タグ, データ
+
+            @Override
+            public void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index) {
+                if (buf != null) {
+                    handler.receivedPluginMessage(buf, index + 1, 0);
+                }
+            }
+
+        };
+        mappings.put(MINECRAFT_1_8, v1_8);
+    }
+
+    /**
+     * プロトコルバージョンに対応する表を取得します.
+     * @param version プロトコルバージョン
+     * @return 対応する表, 対応していないバージョンなら何も処理しない表
+     */
+    static ProtocolMapping of(int version) {
+        ProtocolMapping result = mappings.get(version);
+        return result != null ? result : UNSUPPORTED;
+    }
+
+    static Action getOutboundDefined(Class<?> type) {
+        return outboundDefined.get(type);
+    }
+
+    final Action[] inbound = new Action[TABLE_SIZE], outbound = new Action[TABLE_SIZE];
+
+    private ProtocolMapping() {
+    }
+
+    /**
+     * パケットIDに対応付けられる処理.
+     */
+    interface Action {
+
+        /**
+         * パケットを処理します.
+         * バッファの読み取り位置を動かしてはいけません。
+         * @param handler 受信したプレイヤーのハンドラ
+         * @param packet Bungeecordが解釈したパケット, 解釈されていなければ{@code null}
+         * @param buf パケットIDから始まる生のパケット, Bungeecordが直接書き込んだパケットなら{@code null}
+         * @param index バッファ内のパケットIDの位置
+         */
+        void handle(PacketHandler handler, DefinedPacket packet, ByteBuf buf, int index);
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+/**
+ * Region.
+ * プレイヤーの出入りを検出する領域です。
+ * 領域は{@link RegionManager}に登録することで判定されるようになります。
+ * 領域は登録後に変化してはいけません。
+ *
+ * @author toyblocks
+ * @see RegionManager
+ */
+public abstract class Region {
+
+    private final String name;
+    private final World world;
+    private final double minX, minY, minZ, maxX, maxY, maxZ;
+
+    /**
+     * 領域を作成します.
+     * @param name 領域の名前
+     * @param world 領域が属するワールドにある位置.
+     * ワールドが記録されていない場合はディメンションで判定します
+     * @param minX 領域を囲む直方体のx座標の最小値
+     * @param minY 領域を囲む直方体のy座標の最小値
+     * @param minZ 領域を囲む直方体のz座標の最小値
+     * @param maxX 領域を囲む直方体のx座標の最大値
+     * @param maxY 領域を囲む直方体のy座標の最大値
+     * @param maxZ 領域を囲む直方体のz座標の最大値
+     */
+    protected Region(String name, Location world, double minX, double minY, double minZ, double maxX, double maxY, double maxZ) {
+        if (minX > maxX || minY > maxY || minZ > maxZ) {
+            throw new IllegalArgumentException("Invalid bounding box");
+        }
+        this.name = name;
+        this.world = world.getWorld();
+        this.minX = minX;
+        this.minY = minY;
+        this.minZ = minZ;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxZ = maxZ;
+    }
+
+    /**
+     * 領域の名前を取得します.
+     * @return 領域の名前
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    World getWorld() {
+        return this.world;
+    }
+
+    /**
+     * 領域を囲む直方体のx座標の最小値を取得します.
+     * @return x座標の最小値
+     */
+    public double getMinX() {
+        return this.minX;
+    }
+
+    /**
+     * 領域を囲む直方体のy座標の最小値を取得します.
+     * @return y座標の最小値
+     */
+    public double getMinY() {
+        return this.minY;
+    }
+
+    /**
+     * 領域を囲む直方体のz座標の最小値を取得します.
+     * @return z座標の最小値
+     */
+    public double getMinZ() {
+        return this.minZ;
+    }
+
+    /**
+     * 領域を囲む直方体のx座標の最大値を取得します.
+     * @return x座標の最大値
+     */
+    public double getMaxX() {
+        return this.maxX;
+    }
+
+    /**
+     * 領域を囲む直方体のy座標の最大値を取得します.
+     * @return y座標の最大値
+     */
+    public double getMaxY() {
+        return this.maxY;
+    }
+
+    /**
+     * 領域を囲む直方体のz座標の最大値を取得します.
+     * @return z座標の最大値
+     */
+    public double getMaxZ() {
+        return this.maxZ;
+    }
+
+    /**
+     * 座標が領域内にあるか判定します.
+     * 領域を囲む直方体の外にある座標に対しては呼び出されません。
+     * パケットの受信毎にNettyのスレッドから呼び出されるため、軽量である必要があります。
+     * @param x x座標
+     * @param y y座標
+     * @param z z座標
+     * @return {@code true}なら領域内にある、falseならそうでない
+     */
+    protected abstract boolean containsInBounds(double x, double y, double z);
+
+    /**
+     * 座標が領域内にあるか判定します.
+     * @param x x座標
+     * @param y y座標
+     * @param z z座標
+     * @return {@code true}なら領域内にある、falseならそうでない
+     */
+    public final boolean contains(double x, double y, double z) {
+        return this.minX <= x && x <= this.maxX
+                && this.minY <= y && y <= this.maxY
+                && this.minZ <= z && z <= this.maxZ
+                && this.containsInBounds(x, y, z);
+    }
+
+    @Override
+    public String toString() {
+        return this.getClass().getSimpleName() + "{" + "name=" + name + ", world=" + world + '}';
+    }
+
+}
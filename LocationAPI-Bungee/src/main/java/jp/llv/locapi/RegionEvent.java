@@ -0,0 +1,63 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.plugin.Event;
+
+/**
+ * RegionEvent.
+ * プレイヤーが領域に出入りした際のイベントです。
+ * パケットを受信したNettyのスレッドから呼び出されるため、
+ * リスナは重い処理を行うべきではありません。
+ *
+ * @author toyblocks
+ */
+public abstract class RegionEvent extends Event {
+
+    private final ProxiedPlayer player;
+    private final Region region;
+
+    protected RegionEvent(ProxiedPlayer player, Region region) {
+        this.player = player;
+        this.region = region;
+    }
+
+    /**
+     * 領域に出入りしたプレイヤーを取得します.
+     * @return プレイヤー
+     */
+    public ProxiedPlayer getPlayer() {
+        return this.player;
+    }
+
+    /**
+     * 出入りした領域を取得します.
+     * @return 領域
+     */
+    public Region getRegion() {
+        return this.region;
+    }
+
+}
@@ -0,0 +1,341 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+
+/**
+ * RegionManager.
+ * 登録された領域へのプレイヤーの出入りを、位置のパケットを受信する度に判定し、
+ * {@link RegionEnterEvent}と{@link RegionLeaveEvent}を呼び出します。
+ * 領域はワールド毎に一辺64ブロックのセルへ索引付けされるため、
+ * 一回の判定ではプレイヤーの周囲にある領域のみが検査されます。
+ *
+ * @author toyblocks
+ */
+public final class RegionManager {
+
+    static final Region[] NONE = new Region[0];
+    //セルの一辺の長さ. 64ブロック
+    private static final int CELL_SHIFT = 6;
+    //これ以上のセルにまたがる領域は索引付けせず、常に検査する
+    private static final long MAX_INDEXED_CELLS = 4096;
+    private static final ConcurrentMap<World, Grid> grids = new ConcurrentHashMap<>();
+    //登録状況が変わる度に増加する
+    private static volatile long modCount = 0;
+    private static volatile int count = 0;
+
+    private RegionManager() {
+    }
+
+    /**
+     * 領域を登録します.
+     * 既に領域内にいるプレイヤーに対しては、次に位置を受信した時点でイベントが呼び出されます。
+     * @param region 登録する領域
+     * @return trueならば登録した、falseなら既に登録されていた
+     */
+    public static synchronized boolean register(Region region) {
+        Grid grid = grids.get(region.getWorld());
+        if (grid == null) {
+            grids.put(region.getWorld(), grid = new Grid());
+        }
+        if (!grid.all.add(region)) {
+            return false;
+        }
+        int minCX = cellCoord(region.getMinX()), maxCX = cellCoord(region.getMaxX());
+        int minCZ = cellCoord(region.getMinZ()), maxCZ = cellCoord(region.getMaxZ());
+        if (((long) maxCX - minCX + 1) * ((long) maxCZ - minCZ + 1) > MAX_INDEXED_CELLS) {
+            grid.large = append(grid.large, region);
+        } else {
+            for (int x = minCX; x <= maxCX; x++) {
+                for (int z = minCZ; z <= maxCZ; z++) {
+                    Long key = SpatialIndex.cellKey(x, z);
+                    Region[] cell = grid.cells.get(key);
+                    grid.cells.put(key, append(cell == null ? NONE : cell, region));
+                }
+            }
+        }
+        count++;
+        modCount++;
+        LocationDemand.update();
+        return true;
+    }
+
+    /**
+     * 領域の登録を解除します.
+     * 領域内にいたプレイヤーに対しては、次に位置を受信した時点で{@link RegionLeaveEvent}が呼び出されます。
+     * @param region 解除する領域
+     * @return trueならば解除した、falseなら登録されていなかった
+     */
+    public static synchronized boolean unregister(Region region) {
+        Grid grid = grids.get(region.getWorld());
+        if (grid == null || !grid.all.remove(region)) {
+            return false;
+        }
+        int minCX = cellCoord(region.getMinX()), maxCX = cellCoord(region.getMaxX());
+        int minCZ = cellCoord(region.getMinZ()), maxCZ = cellCoord(region.getMaxZ());
+        if (((long) maxCX - minCX + 1) * ((long) maxCZ - minCZ + 1) > MAX_INDEXED_CELLS) {
+            grid.large = removeFrom(grid.large, region);
+        } else {
+            for (int x = minCX; x <= maxCX; x++) {
+                for (int z = minCZ; z <= maxCZ; z++) {
+                    Long key = SpatialIndex.cellKey(x, z);
+                    Region[] cell = removeFrom(grid.cells.get(key), region);
+                    if (cell.length == 0) {
+                        grid.cells.remove(key);
+                    } else {
+                        grid.cells.put(key, cell);
+                    }
+                }
+            }
+        }
+        count--;
+        modCount++;
+        LocationDemand.update();
+        return true;
+    }
+
+    /**
+     * 登録されている領域を取得します.
+     * @return 登録されている領域
+     */
+    public static synchronized Set<Region> getRegistered() {
+        Set<Region> result = new HashSet<>();
+        for (Grid grid : grids.values()) {
+            result.addAll(grid.all);
+        }
+        return result;
+    }
+
+    /**
+     * プレイヤーが現在いる領域を取得します.
+     * 最後に受信した位置による判定結果です。
+     * @param player プレイヤー
+     * @return プレイヤーがいる領域
+     */
+    public static List<Region> getRegions(ProxiedPlayer player) {
+        Location loc = Location.of(player);
+        if (loc == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(Arrays.asList(loc.regions));
+    }
+
+    /**
+     * 位置を含む領域を取得します.
+     * @param loc 位置
+     * @return 位置を含む領域
+     */
+    public static List<Region> getRegionsAt(Location loc) {
+        List<Region> result = new ArrayList<>();
+        Grid grid = grids.get(loc.getWorld());
+        if (grid == null) {
+            return result;
+        }
+        long v;
+        double x, y, z;
+        do {
+            v = loc.getVersion();
+            x = loc.getX();
+            y = loc.getY();
+            z = loc.getZ();
+        } while (!loc.validate(v));
+        for (Region r : grid.candidates(SpatialIndex.cellKey(cellCoord(x), cellCoord(z)))) {
+            if (r.contains(x, y, z)) {
+                result.add(r);
+            }
+        }
+        for (Region r : grid.large) {
+            if (r.contains(x, y, z)) {
+                result.add(r);
+            }
+        }
+        return result;
+    }
+
+    //領域が登録されているか. LocationDemandが参照する
+    static boolean hasRegions() {
+        return count > 0;
+    }
+
+    /**
+     * プレイヤーの位置の変化を判定し、必要であればイベントを呼び出します.
+     * 位置を更新するスレッド(そのプレイヤーのイベントループ)から呼び出す必要があります。
+     * 出入りがなければインスタンスを生成しません。
+     */
+    static void update(ProxiedPlayer player, Location loc, Tracker tracker) {
+        Region[] current = loc.regions;
+        if (count == 0 && current.length == 0) {
+            return;
+        }
+        double x = loc.getX(), y = loc.getY(), z = loc.getZ();
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isNaN(z)) {
+            tracker.reset();
+        } else {
+            tracker.locate(loc.getWorld(), SpatialIndex.cellKey(cellCoord(x), cellCoord(z)));
+        }
+        boolean changed = false;
+        int matched = 0;
+        for (Region r : tracker.candidates) {
+            boolean inside = r.contains(x, y, z);
+            if (inside) {
+                matched++;
+            }
+            changed |= inside != contains(current, r);
+        }
+        for (Region r : tracker.large) {
+            boolean inside = r.contains(x, y, z);
+            if (inside) {
+                matched++;
+            }
+            changed |= inside != contains(current, r);
+        }
+        if (!changed && matched == current.length) {
+            return;
+        }
+        Region[] next = new Region[matched];
+        int i = 0;
+        for (Region r : tracker.candidates) {
+            if (r.contains(x, y, z)) {
+                next[i++] = r;
+            }
+        }
+        for (Region r : tracker.large) {
+            if (r.contains(x, y, z)) {
+                next[i++] = r;
+            }
+        }
+        loc.regions = next;
+        for (Region r : current) {
+            if (!contains(next, r)) {
+                ProxyServer.getInstance().getPluginManager().callEvent(new RegionLeaveEvent(player, r));
+            }
+        }
+        for (Region r : next) {
+            if (!contains(current, r)) {
+                ProxyServer.getInstance().getPluginManager().callEvent(new RegionEnterEvent(player, r));
+            }
+        }
+    }
+
+    /**
+     * プレイヤーがいる全ての領域について{@link RegionLeaveEvent}を呼び出します.
+     * 切断した際と、他のサーバーへ移動した際に呼び出されます。
+     * 位置を更新するスレッド(そのプレイヤーのイベントループ)から呼び出す必要があります。
+     */
+    static void leaveAll(ProxiedPlayer player, Location loc, Tracker tracker) {
+        Region[] current = loc.regions;
+        if (tracker != null) {
+            tracker.reset();
+        }
+        if (current.length == 0) {
+            return;
+        }
+        loc.regions = NONE;
+        for (Region r : current) {
+            ProxyServer.getInstance().getPluginManager().callEvent(new RegionLeaveEvent(player, r));
+        }
+    }
+
+    private static int cellCoord(double coord) {
+        return ((int) Math.floor(coord)) >> CELL_SHIFT;
+    }
+
+    private static boolean contains(Region[] regions, Region region) {
+        for (Region r : regions) {
+            if (r == region) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static Region[] append(Region[] regions, Region region) {
+        Region[] result = Arrays.copyOf(regions, regions.length + 1);
+        result[regions.length] = region;
+        return result;
+    }
+
+    private static Region[] removeFrom(Region[] regions, Region region) {
+        List<Region> result = new ArrayList<>(Arrays.asList(regions));
+        result.remove(region);
+        return result.toArray(NONE);
+    }
+
+    private static final class Grid {
+
+        private final ConcurrentMap<Long, Region[]> cells = new ConcurrentHashMap<>();
+        private volatile Region[] large = NONE;
+        //RegionManager.classで同期する
+        private final Set<Region> all = new HashSet<>();
+
+        private Region[] candidates(long key) {
+            Region[] result = this.cells.get(key);
+            return result == null ? NONE : result;
+        }
+    }
+
+    /**
+     * プレイヤー毎に、周囲にある領域を記憶します.
+     * セルを移動するか登録状況が変わるまで、索引を引き直しません。
+     */
+    static final class Tracker {
+
+        private World world = null;
+        private long cellKey = 0;
+        private long modCount = -1;
+        private Region[] candidates = NONE;
+        private Region[] large = NONE;
+
+        private void locate(World world, long cellKey) {
+            long mod = RegionManager.modCount;
+            if (mod == this.modCount && cellKey == this.cellKey && world == this.world) {
+                return;
+            }
+            Grid grid = grids.get(world);
+            this.world = world;
+            this.cellKey = cellKey;
+            this.modCount = mod;
+            this.candidates = grid == null ? NONE : grid.candidates(cellKey);
+            this.large = grid == null ? NONE : grid.large;
+        }
+
+        private void reset() {
+            this.world = null;
+            this.modCount = -1;
+            this.candidates = NONE;
+            this.large = NONE;
+        }
+    }
+
+}
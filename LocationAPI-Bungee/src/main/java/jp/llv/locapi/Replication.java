@@ -0,0 +1,464 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import net.md_5.bungee.api.plugin.Plugin;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Replication.
+ * このプロキシのプレイヤーの位置を他のプロキシへ送信し、他のプロキシのプレイヤーの位置を受信します.
+ * 送信は一定の間隔でまとめて行い、前回の送信から変化したプレイヤーについて、
+ * 前回送信した値から変化した項目のみを送ります。そのため通信量は人数ではなく移動の頻度に比例します。
+ * 一定の回数毎に全てのプレイヤーの全ての項目を送り、途中から参加したプロキシや失われた更新を補います。
+ * 経路が送信に失敗したバッチの内容は、送信済みとして扱わず次の送信で送り直します。
+ * <p>
+ * 受信した位置は{@link #getRemote(java.util.UUID)}や{@link #forEachRemote(jp.llv.locapi.LocationQuery.Visitor)}で参照できます。
+ * これらの位置は読み取り専用で、{@link Location#of(java.util.UUID)}からは取得できません。
+ * 送信元のプロキシから一定の期間受信しなかった場合、そのプロキシのプレイヤーの位置は破棄されます。
+ *
+ * @author toyblocks
+ */
+public final class Replication implements ReplicationTransport.Receiver {
+
+    /**
+     * 一つのバッチの大きさの上限
+     */
+    public static final int MAX_BATCH_SIZE = 32 * 1024;
+    private static final int MAGIC = 0x4C415052;//LAPR
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 2;
+    private static final int KEYFRAME_INTERVAL = 50;
+    private static final int EXPIRY_KEYFRAMES = 3;
+    private static final int FIELD_X = 1, FIELD_Y = 2, FIELD_Z = 4, FIELD_ANGLES = 8, FIELD_WORLD = 16, FIELD_ALL = 31;
+    private static final int ON_GROUND = 32, LEFT = 64;
+    private static final int MAX_RECORD_SIZE = 1 + 16 + 8 * 3 + 4 * 2 + 2;
+    private static final Logger logger = Logger.getLogger(Replication.class.getName());
+    private static final List<Replication> active = new CopyOnWriteArrayList<>();
+
+    private final ReplicationTransport transport;
+    private final long node = UUID.randomUUID().getMostSignificantBits();
+    private final long expiryNanos;
+    //送信側の状態. flushの中でのみ使う
+    private final Queue<UUID> departures = new ConcurrentLinkedQueue<>();
+    private final Map<UUID, Location> sent = new HashMap<>();
+    private final List<Location> changed = new ArrayList<>();
+    private final Map<World, Integer> worldIndices = new IdentityHashMap<>();
+    private final ByteBuffer worlds = ByteBuffer.allocate(MAX_BATCH_SIZE);
+    private final ByteBuffer records = ByteBuffer.allocate(MAX_BATCH_SIZE);
+    private final ByteBuffer batch = ByteBuffer.allocate(MAX_BATCH_SIZE);
+    private final Location scratch = Location.remote(null);
+    //送信中のバッチに含めた位置と切断. 経路が受け付けるまでsentへ反映しない
+    private final List<UUID> stagedIds = new ArrayList<>();
+    private final List<Location> staged = new ArrayList<>();
+    private final List<UUID> stagedDepartures = new ArrayList<>();
+    private long version = 0L;
+    private int flushes = 0;
+    private int sequence = 0;
+    private int count = 0;
+    //受信側の状態. 送信中に経路から同期的に受信しても互いを待たないよう、送信側とは別にロックする
+    private final Object receiving = new Object();
+    private final ConcurrentMap<UUID, Remote> remotes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Long> nodes = new ConcurrentHashMap<>();
+    private ScheduledTask task;
+
+    /**
+     * 複製を開始します.
+     * 送信はBungeeCordのスケジューラーから一定の間隔で行われます。
+     * @param plugin プラグイン
+     * @param transport 経路
+     * @param interval 送信の間隔
+     * @param unit 間隔の単位
+     * @return 開始した複製
+     */
+    public static Replication start(Plugin plugin, ReplicationTransport transport, long interval, TimeUnit unit) {
+        final Replication result = new Replication(transport, interval, unit);
+        result.task = plugin.getProxy().getScheduler().schedule(plugin, new Runnable() {
+
+            @Override
+            public void run() {
+                try {
+                    result.flush();
+                } catch (IOException | RuntimeException ex) {
+                    logger.log(Level.WARNING, "Failed to replicate locations", ex);
+                }
+            }
+
+        }, interval, interval, unit);
+        return result;
+    }
+
+    /**
+     * 複製を作成します.
+     * 送信は{@link #flush()}を呼び出した時に行われます。
+     * @param transport 経路
+     * @param interval {@link #flush()}を呼び出す間隔. 他のプロキシを見失ったと判断するまでの期間に用いられます
+     * @param unit 間隔の単位
+     */
+    public Replication(ReplicationTransport transport, long interval, TimeUnit unit) {
+        this.transport = transport;
+        this.expiryNanos = unit.toNanos(interval) * KEYFRAME_INTERVAL * EXPIRY_KEYFRAMES;
+        active.add(this);
+        transport.setReceiver(this);
+        LocationDemand.update();
+    }
+
+    /**
+     * 複製を終了し、経路を閉じます.
+     * 受信した位置は破棄されます。
+     */
+    public void close() {
+        synchronized (this) {
+            if (this.task != null) {
+                this.task.cancel();
+                this.task = null;
+            }
+        }
+        active.remove(this);
+        LocationDemand.update();
+        this.transport.close();
+        this.remotes.clear();
+        this.nodes.clear();
+    }
+
+    //LocationAPIの終了時に全ての複製を閉じる
+    static void closeAll() {
+        for (Replication replication : active) {
+            replication.close();
+        }
+    }
+
+    static boolean isActive() {
+        return !active.isEmpty();
+    }
+
+    //プレイヤーの切断を全ての複製へ知らせる
+    static void departed(UUID player) {
+        for (Replication replication : active) {
+            replication.departures.add(player);
+        }
+    }
+
+    /**
+     * 前回の送信以降に変化したプレイヤーの位置を送信します.
+     * バッチが{@link #MAX_BATCH_SIZE}を超える場合は分割して送信します。
+     * @throws IOException 送信できなかった
+     */
+    public synchronized void flush() throws IOException {
+        boolean keyframe = this.flushes++ % KEYFRAME_INTERVAL == 0;
+        this.changed.clear();
+        long next = LocationQuery.getChangedSince(keyframe ? 0L : this.version, this.changed);
+        for (Location loc : this.changed) {
+            //前回の起動時から復元されたまま移動していない位置は送らない
+            if (loc.isStale()) {
+                continue;
+            }
+            UUID uuid = loc.getPlayerUUID();
+            Location last = this.sent.get(uuid);
+            Location current = loc.copyTo(this.scratch);
+            int fields = last == null || keyframe ? FIELD_ALL : diff(last, current);
+            if (fields == 0 && last.isOnGround() == current.isOnGround()) {
+                continue;
+            }
+            this.put(uuid, fields, current);
+            this.stage(uuid, current);
+        }
+        UUID departed;
+        while ((departed = this.departures.poll()) != null) {
+            //すぐに再接続した場合は全ての項目を送り直す
+            if (Location.isOnline(departed)) {
+                this.sent.remove(departed);
+                continue;
+            }
+            if (!this.sent.containsKey(departed)) {
+                continue;
+            }
+            this.reserve(1 + 16, null);
+            this.records.put((byte) LEFT).putLong(departed.getMostSignificantBits()).putLong(departed.getLeastSignificantBits());
+            this.stagedDepartures.add(departed);
+            this.count++;
+        }
+        if (this.count > 0) {
+            this.send();
+        }
+        //全てのバッチを送信できた場合のみ進める. 失敗すれば次回も同じ版から変化を集める
+        this.version = next;
+        if (keyframe) {
+            this.expire();
+        }
+    }
+
+    private static int diff(Location last, Location current) {
+        int fields = 0;
+        if (Double.doubleToLongBits(last.getX()) != Double.doubleToLongBits(current.getX())) {
+            fields |= FIELD_X;
+        }
+        if (Double.doubleToLongBits(last.getY()) != Double.doubleToLongBits(current.getY())) {
+            fields |= FIELD_Y;
+        }
+        if (Double.doubleToLongBits(last.getZ()) != Double.doubleToLongBits(current.getZ())) {
+            fields |= FIELD_Z;
+        }
+        if (Float.floatToIntBits(last.getYaw()) != Float.floatToIntBits(current.getYaw())
+                || Float.floatToIntBits(last.getPitch()) != Float.floatToIntBits(current.getPitch())) {
+            fields |= FIELD_ANGLES;
+        }
+        if (last.getWorld() != current.getWorld()) {
+            fields |= FIELD_WORLD;
+        }
+        return fields;
+    }
+
+    private void put(UUID uuid, int fields, Location loc) throws IOException {
+        World world = loc.getWorld();
+        this.reserve(MAX_RECORD_SIZE, (fields & FIELD_WORLD) == 0 ? null : world);
+        ByteBuffer buf = this.records;
+        buf.put((byte) (loc.isOnGround() ? fields | ON_GROUND : fields));
+        buf.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+        if ((fields & FIELD_X) != 0) {
+            buf.putDouble(loc.getX());
+        }
+        if ((fields & FIELD_Y) != 0) {
+            buf.putDouble(loc.getY());
+        }
+        if ((fields & FIELD_Z) != 0) {
+            buf.putDouble(loc.getZ());
+        }
+        if ((fields & FIELD_ANGLES) != 0) {
+            buf.putFloat(loc.getYaw()).putFloat(loc.getPitch());
+        }
+        if ((fields & FIELD_WORLD) != 0) {
+            buf.putShort((short) this.indexOf(world));
+        }
+        this.count++;
+    }
+
+    //レコードとワールドを書き込む余地がなければ、それまでのレコードを送信する
+    private void reserve(int size, World world) throws IOException {
+        int worldSize = world == null || this.worldIndices.containsKey(world) ? 0 : world.getEncodedSize();
+        if (HEADER_SIZE + this.worlds.position() + worldSize + 4 + this.records.position() + size > MAX_BATCH_SIZE) {
+            this.send();
+        }
+    }
+
+    private int indexOf(World world) {
+        Integer index = this.worldIndices.get(world);
+        if (index == null) {
+            index = this.worldIndices.size();
+            this.worldIndices.put(world, index);
+            world.writeTo(this.worlds);
+        }
+        return index;
+    }
+
+    private void stage(UUID uuid, Location loc) {
+        int i = this.stagedIds.size();
+        if (i == this.staged.size()) {
+            this.staged.add(Location.remote(null));
+        }
+        this.stagedIds.add(uuid);
+        loc.copyTo(this.staged.get(i));
+    }
+
+    private void send() throws IOException {
+        ByteBuffer buf = this.batch;
+        buf.clear();
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION).putLong(this.node).putInt(this.sequence++);
+        buf.putShort((short) this.worldIndices.size()).put((ByteBuffer) this.worlds.flip());
+        buf.putInt(this.count).put((ByteBuffer) this.records.flip());
+        buf.flip();
+        this.worlds.clear();
+        this.records.clear();
+        this.worldIndices.clear();
+        this.count = 0;
+        try {
+            this.transport.send(buf);
+        } catch (IOException | RuntimeException ex) {
+            //送れなかった切断は次の送信で送り直す
+            this.departures.addAll(this.stagedDepartures);
+            this.stagedIds.clear();
+            this.stagedDepartures.clear();
+            throw ex;
+        }
+        for (int i = 0; i < this.stagedIds.size(); i++) {
+            UUID uuid = this.stagedIds.get(i);
+            Location last = this.sent.get(uuid);
+            if (last == null) {
+                last = Location.remote(uuid);
+                this.sent.put(uuid, last);
+            }
+            this.staged.get(i).copyTo(last);
+        }
+        for (UUID departed : this.stagedDepartures) {
+            this.sent.remove(departed);
+        }
+        this.stagedIds.clear();
+        this.stagedDepartures.clear();
+    }
+
+    //長い間受信していないプロキシのプレイヤーを破棄する
+    private void expire() {
+        synchronized (this.receiving) {
+            this.expire(System.nanoTime());
+        }
+    }
+
+    private void expire(long now) {
+        for (Iterator<Map.Entry<Long, Long>> it = this.nodes.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Long, Long> entry = it.next();
+            if (now - entry.getValue() < this.expiryNanos) {
+                continue;
+            }
+            it.remove();
+            for (Iterator<Remote> rit = this.remotes.values().iterator(); rit.hasNext();) {
+                if (rit.next().node == entry.getKey()) {
+                    rit.remove();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void receive(ByteBuffer batch) {
+        try {
+            synchronized (this.receiving) {
+                this.read(batch.slice());
+            }
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            logger.log(Level.WARNING, "Dropped a malformed replication batch", ex);
+        }
+    }
+
+    private void read(ByteBuffer buf) {
+        if (buf.remaining() < HEADER_SIZE || buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION) {
+            throw new IllegalArgumentException("Not a replication batch");
+        }
+        long from = buf.getLong();
+        buf.getInt();//sequence
+        if (from == this.node) {
+            return;
+        }
+        this.nodes.put(from, System.nanoTime());
+        World[] table = new World[buf.getShort() & 0xFFFF];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = World.readFrom(buf);
+        }
+        for (int i = 0, n = buf.getInt(); i < n; i++) {
+            int fields = buf.get();
+            UUID uuid = new UUID(buf.getLong(), buf.getLong());
+            Remote remote = this.remotes.get(uuid);
+            if ((fields & LEFT) != 0) {
+                if (remote != null && remote.node == from) {
+                    this.remotes.remove(uuid, remote);
+                }
+                continue;
+            }
+            Location loc = remote == null ? null : remote.location;
+            double x = (fields & FIELD_X) != 0 ? buf.getDouble() : loc == null ? 0D : loc.getX();
+            double y = (fields & FIELD_Y) != 0 ? buf.getDouble() : loc == null ? 0D : loc.getY();
+            double z = (fields & FIELD_Z) != 0 ? buf.getDouble() : loc == null ? 0D : loc.getZ();
+            float yaw = (fields & FIELD_ANGLES) != 0 ? buf.getFloat() : loc == null ? 0F : loc.getYaw();
+            float pitch = (fields & FIELD_ANGLES) != 0 ? buf.getFloat() : loc == null ? 0F : loc.getPitch();
+            World world = (fields & FIELD_WORLD) != 0 ? worldOf(table, buf.getShort() & 0xFFFF) : loc == null ? null : loc.getWorld();
+            if (remote == null || remote.node != from) {
+                //途中から受信した差分は、全ての項目が届くまで適用できない
+                if ((fields & FIELD_ALL) != FIELD_ALL) {
+                    continue;
+                }
+                remote = new Remote(from, Location.remote(uuid));
+                this.remotes.put(uuid, remote);
+            }
+            remote.location.update(x, y, z, yaw, pitch, (fields & ON_GROUND) != 0, world);
+        }
+    }
+
+    private static World worldOf(World[] table, int index) {
+        if (index >= table.length) {
+            throw new IllegalArgumentException("Unknown world index " + index);
+        }
+        return table[index];
+    }
+
+    /**
+     * 他のプロキシに接続しているプレイヤーの位置を取得します.
+     * @param player プレイヤーのUUID
+     * @return 受信している場合はその位置、そうでなければ{@code null}
+     */
+    public Location getRemote(UUID player) {
+        Remote remote = this.remotes.get(player);
+        return remote == null ? null : remote.location;
+    }
+
+    /**
+     * 他のプロキシに接続しているプレイヤーの数を取得します.
+     * @return 位置を受信しているプレイヤーの数
+     */
+    public int getRemoteCount() {
+        return this.remotes.size();
+    }
+
+    /**
+     * 他のプロキシに接続している全てのプレイヤーの位置を訪問します.
+     * 訪問中に受信した更新は反映されることもされないこともあります。
+     * @param visitor 訪問者
+     */
+    public void forEachRemote(LocationQuery.Visitor visitor) {
+        Location s = Location.remote(null);
+        for (Remote remote : this.remotes.values()) {
+            remote.location.copyTo(s);
+            visitor.visit(remote.location, s.getX(), s.getY(), s.getZ(), s.getYaw(), s.getPitch(), s.isOnGround(), s.getWorld());
+        }
+    }
+
+    private static final class Remote {
+
+        private final long node;
+        private final Location location;
+
+        private Remote(long node, Location location) {
+            this.node = node;
+            this.location = location;
+        }
+
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * ReplicationTransport.
+ * {@link Replication}がプロキシ間で位置の更新を送受信するための経路です.
+ * 実装は一つのバッチを一つのメッセージとして、他の全てのプロキシへ届けます。
+ * 届ける順序や確実性は保証しなくてもよく、失われた更新は定期的な全体の送信で補われます。
+ *
+ * @author toyblocks
+ */
+public interface ReplicationTransport {
+
+    /**
+     * バッチを他のプロキシへ送信します.
+     * バッファの位置から上限までが一つのバッチです。
+     * バッファは呼び出しから戻った後に再利用されるため、保持する場合は複製してください。
+     * @param batch バッチ
+     * @throws IOException 送信できなかった
+     */
+    void send(ByteBuffer batch) throws IOException;
+
+    /**
+     * 他のプロキシから受信したバッチを渡す先を設定します.
+     * @param receiver 受信したバッチを渡す先. {@code null}なら受信したバッチを破棄する
+     */
+    void setReceiver(Receiver receiver);
+
+    /**
+     * 経路を閉じます.
+     * 閉じた後は送信も受信もしません。
+     */
+    void close();
+
+    /**
+     * 受信したバッチを受け取る処理.
+     */
+    interface Receiver {
+
+        /**
+         * 受信したバッチを受け取ります.
+         * 任意のスレッドから呼び出される可能性があります。
+         * @param batch バッチ. 位置から上限までが一つのバッチです
+         */
+        void receive(ByteBuffer batch);
+    }
+
+}
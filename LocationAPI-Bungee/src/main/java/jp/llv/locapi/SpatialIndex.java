@@ -0,0 +1,666 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * SpatialIndex.
+ * ワールド毎にプレイヤーの位置を一辺16ブロックのセルに分割して保持します。
+ * パケットの受信に応じて逐次更新されるため、範囲内のプレイヤーを
+ * 全プレイヤーを走査することなく検索できます。
+ *
+ * @author toyblocks
+ */
+public final class SpatialIndex {
+
+    //セルの一辺の長さ. 1チャンクと同じ16ブロック
+    private static final int CELL_SHIFT = 4;
+    private static final int MIN_TABLE_SIZE = 64;
+    private static final Location[] EMPTY = new Location[0];
+    //World#getIndex()を添字とする. 拡張はSpatialIndex.classで同期する
+    private static volatile SpatialIndex[] indices = new SpatialIndex[8];
+    private static final ThreadLocal<NearestHeap> heaps = new ThreadLocal<NearestHeap>() {
+
+        @Override
+        protected NearestHeap initialValue() {
+            return new NearestHeap();
+        }
+
+    };
+
+    /**
+     * 中心から一定距離内にいるプレイヤーの位置を取得します.
+     * 中心と同じワールドにいるプレイヤーのみが対象です。
+     * ワールドが記録されていない場合はディメンションで判定します。
+     * @param center 中心
+     * @param radius 半径
+     * @return 範囲内にいるプレイヤーの位置
+     */
+    public static List<Location> getNearby(Location center, double radius) {
+        return getNearby(center, radius, new ArrayList<Location>());
+    }
+
+    /**
+     * 中心から一定距離内にいるプレイヤーの位置を取得します.
+     * 結果を格納するコレクションを使いまわすことができます。
+     * @param <T> 結果を格納するコレクションの型
+     * @param center 中心
+     * @param radius 半径
+     * @param result 結果を格納するコレクション
+     * @return {@code result}
+     * @see #getNearby(jp.llv.locapi.Location, double)
+     */
+    public static <T extends Collection<? super Location>> T getNearby(Location center, double radius, T result) {
+        LocationDemand.queried();
+        SpatialIndex index = get(center.getWorld());
+        if (index == null) {
+            return result;
+        }
+        long v;
+        double x, y, z;
+        do {
+            v = center.getVersion();
+            x = center.getX();
+            y = center.getY();
+            z = center.getZ();
+        } while (!center.validate(v));
+        index.collect(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius,
+                x, y, z, radius * radius, result);
+        return result;
+    }
+
+    /**
+     * 二点を対角とする直方体の範囲内にいるプレイヤーの位置を取得します.
+     * 一方の点と同じワールドにいるプレイヤーのみが対象です。
+     * @param corner 一方の頂点
+     * @param other もう一方の頂点
+     * @return 範囲内にいるプレイヤーの位置
+     */
+    public static List<Location> getWithin(Location corner, Location other) {
+        return getWithin(corner, other, new ArrayList<Location>());
+    }
+
+    /**
+     * 二点を対角とする直方体の範囲内にいるプレイヤーの位置を取得します.
+     * 結果を格納するコレクションを使いまわすことができます。
+     * @param <T> 結果を格納するコレクションの型
+     * @param corner 一方の頂点
+     * @param other もう一方の頂点
+     * @param result 結果を格納するコレクション
+     * @return {@code result}
+     * @see #getWithin(jp.llv.locapi.Location, jp.llv.locapi.Location)
+     */
+    public static <T extends Collection<? super Location>> T getWithin(Location corner, Location other, T result) {
+        LocationDemand.queried();
+        SpatialIndex index = get(corner.getWorld());
+        if (index == null) {
+            return result;
+        }
+        long v;
+        double x1, y1, z1, x2, y2, z2;
+        do {
+            v = corner.getVersion();
+            x1 = corner.getX();
+            y1 = corner.getY();
+            z1 = corner.getZ();
+        } while (!corner.validate(v));
+        do {
+            v = other.getVersion();
+            x2 = other.getX();
+            y2 = other.getY();
+            z2 = other.getZ();
+        } while (!other.validate(v));
+        index.collect(Math.min(x1, x2), Math.min(y1, y2), Math.min(z1, z2), Math.max(x1, x2), Math.max(y1, y2), Math.max(z1, z2),
+                0D, 0D, 0D, -1D, result);
+        return result;
+    }
+
+    /**
+     * 中心に近い順にプレイヤーの位置を取得します.
+     * 中心と同じワールドにいるプレイヤーのみが対象です。
+     * 中心がプレイヤーの位置である場合、そのプレイヤー自身は含まれません。
+     * @param center 中心
+     * @param k 取得する最大数
+     * @return 近い順に並んだ最大{@code k}件の位置
+     */
+    public static List<Location> getNearest(Location center, int k) {
+        return getNearest(center, k, new ArrayList<Location>(Math.min(k, 64)));
+    }
+
+    /**
+     * 中心に近い順にプレイヤーの位置を取得します.
+     * 結果を格納するコレクションを使いまわすことができ、
+     * その場合は結果の格納以外にインスタンスを生成しません。
+     * @param <T> 結果を格納するコレクションの型
+     * @param center 中心
+     * @param k 取得する最大数
+     * @param result 結果を格納するコレクション. 近い順に追加されます
+     * @return {@code result}
+     * @see #getNearest(jp.llv.locapi.Location, int)
+     */
+    public static <T extends Collection<? super Location>> T getNearest(Location center, int k, T result) {
+        LocationDemand.queried();
+        if (k <= 0) {
+            return result;
+        }
+        SpatialIndex index = get(center.getWorld());
+        if (index == null) {
+            return result;
+        }
+        long v;
+        double x, y, z;
+        do {
+            v = center.getVersion();
+            x = center.getX();
+            y = center.getY();
+            z = center.getZ();
+        } while (!center.validate(v));
+        //全件を求められても、インデックスにある数より大きなヒープは要らない
+        k = Math.min(k, index.size());
+        if (k == 0) {
+            return result;
+        }
+        NearestHeap heap = heaps.get();
+        heap.reset(k, center);
+        try {
+            index.collectNearest(x, y, z, heap);
+            heap.drainTo(result);
+        } finally {
+            heap.clear();
+        }
+        return result;
+    }
+
+    /**
+     * 位置の変化をインデックスに反映します.
+     * 位置を更新するスレッド(そのプレイヤーのイベントループ)から呼び出す必要があります。
+     * @param loc 更新された位置
+     */
+    static void update(Location loc) {
+        double x = loc.getX(), z = loc.getZ();
+        if (Double.isNaN(x) || Double.isNaN(z)) {
+            remove(loc);
+            return;
+        }
+        Cell current = loc.cell;
+        World world = loc.getWorld();
+        long key = cellKey(x, z);
+        if (current != null && current.key == key && current.index.world == world) {
+            return;
+        }
+        SpatialIndex index = current != null && current.index.world == world ? current.index : getOrCreate(world);
+        Cell next;
+        do {
+            next = index.getOrCreateCell(key);
+        } while (!next.add(loc));
+        index.size.incrementAndGet();
+        loc.cell = next;
+        if (current != null && current.remove(loc)) {
+            current.index.size.decrementAndGet();
+        }
+        //切断処理と競合した場合は取り残されないよう自ら外す
+        UUID owner = loc.getPlayerUUID();
+        if (owner != null && Location.lookup(owner) != loc) {
+            remove(loc);
+        }
+    }
+
+    /**
+     * 位置をインデックスから取り除きます.
+     * @param loc 取り除く位置
+     */
+    static void remove(Location loc) {
+        Cell current = loc.cell;
+        if (current == null) {
+            return;
+        }
+        loc.cell = null;
+        if (current.remove(loc)) {
+            current.index.size.decrementAndGet();
+        }
+    }
+
+    private static SpatialIndex get(World world) {
+        SpatialIndex[] t = indices;
+        int i = world.getIndex();
+        return i < t.length ? t[i] : null;
+    }
+
+    private static SpatialIndex getOrCreate(World world) {
+        SpatialIndex result = get(world);
+        if (result != null) {
+            return result;
+        }
+        synchronized (SpatialIndex.class) {
+            SpatialIndex[] t = indices;
+            int i = world.getIndex();
+            if (i < t.length && t[i] != null) {
+                return t[i];
+            }
+            t = Arrays.copyOf(t, Math.max(t.length, Integer.highestOneBit(i) << 1));
+            result = new SpatialIndex(world);
+            t[i] = result;
+            indices = t;
+            return result;
+        }
+    }
+
+    static int cellCoord(double coord) {
+        return ((int) Math.floor(coord)) >> CELL_SHIFT;
+    }
+
+    static long cellKey(int cx, int cz) {
+        return ((long) cx << 32) | (cz & 0xFFFFFFFFL);
+    }
+
+    static long cellKey(double x, double z) {
+        return cellKey(cellCoord(x), cellCoord(z));
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private final World world;
+    private final AtomicInteger size = new AtomicInteger();
+    //開番地法のハッシュ表. 読み込みはロックを取らず、セルの追加と再構築はthisで同期する
+    private volatile Cell[] table = new Cell[MIN_TABLE_SIZE];
+    private int cells = 0;
+
+    private SpatialIndex(World world) {
+        this.world = world;
+    }
+
+    Cell findCell(long key) {
+        Cell[] t = this.table;
+        int mask = t.length - 1;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            Cell c = t[i];
+            if (c == null || c.key == key) {
+                return c;
+            }
+        }
+    }
+
+    Cell[] getTable() {
+        return this.table;
+    }
+
+    int getCellCount() {
+        return this.cells;
+    }
+
+    int size() {
+        return this.size.get();
+    }
+
+    private Cell getOrCreateCell(long key) {
+        Cell result = this.findCell(key);
+        if (result != null) {
+            return result;
+        }
+        synchronized (this) {
+            result = this.findCell(key);
+            if (result != null) {
+                return result;
+            }
+            if ((this.cells + 1) * 2 > this.table.length) {
+                this.rebuild();
+            }
+            result = new Cell(this, key);
+            insert(this.table, result);
+            this.cells++;
+            return result;
+        }
+    }
+
+    //空のセルを捨てながら表を作り直す
+    private void rebuild() {
+        Cell[] old = this.table;
+        int live = 0;
+        for (Cell c : old) {
+            if (c != null && !c.retire()) {
+                live++;
+            }
+        }
+        int capacity = MIN_TABLE_SIZE;
+        while ((live + 1) * 4 > capacity) {
+            capacity <<= 1;
+        }
+        Cell[] next = new Cell[capacity];
+        for (Cell c : old) {
+            if (c != null && !c.isDead()) {
+                insert(next, c);
+            }
+        }
+        this.cells = live;
+        this.table = next;
+    }
+
+    private static void insert(Cell[] t, Cell cell) {
+        int mask = t.length - 1;
+        int i = hash(cell.key) & mask;
+        while (t[i] != null) {
+            i = (i + 1) & mask;
+        }
+        t[i] = cell;
+    }
+
+    private void collect(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+            double cx, double cy, double cz, double radiusSquared, Collection<? super Location> result) {
+        int minCX = cellCoord(minX), maxCX = cellCoord(maxX);
+        int minCZ = cellCoord(minZ), maxCZ = cellCoord(maxZ);
+        long range = ((long) maxCX - minCX + 1) * ((long) maxCZ - minCZ + 1);
+        if (range > this.cells) {
+            //範囲内のセル数が実在するセル数より多いなら表を直接走査する
+            for (Cell c : this.table) {
+                if (c == null) {
+                    continue;
+                }
+                int x = (int) (c.key >> 32), z = (int) c.key;
+                if (minCX <= x && x <= maxCX && minCZ <= z && z <= maxCZ) {
+                    c.collect(minX, minY, minZ, maxX, maxY, maxZ, cx, cy, cz, radiusSquared, result);
+                }
+            }
+            return;
+        }
+        for (int x = minCX; x <= maxCX; x++) {
+            for (int z = minCZ; z <= maxCZ; z++) {
+                Cell c = this.findCell(cellKey(x, z));
+                if (c != null) {
+                    c.collect(minX, minY, minZ, maxX, maxY, maxZ, cx, cy, cz, radiusSquared, result);
+                }
+            }
+        }
+    }
+
+    private void collectNearest(double x, double y, double z, NearestHeap heap) {
+        int ccx = cellCoord(x), ccz = cellCoord(z);
+        long visited = 0;
+        for (int ring = 0;; ring++) {
+            if (ring > 0 && heap.isFull()) {
+                //探索済みの正方形の外側にある点までの水平距離の下限で枝刈りする
+                double minX = (double) ((long) (ccx - ring + 1) << CELL_SHIFT);
+                double maxX = (double) ((long) (ccx + ring) << CELL_SHIFT);
+                double minZ = (double) ((long) (ccz - ring + 1) << CELL_SHIFT);
+                double maxZ = (double) ((long) (ccz + ring) << CELL_SHIFT);
+                double bound = Math.min(Math.min(x - minX, maxX - x), Math.min(z - minZ, maxZ - z));
+                if (bound * bound >= heap.worst()) {
+                    return;
+                }
+            }
+            visited += ring == 0 ? 1 : 8L * ring;
+            if (visited > this.cells) {
+                //探索範囲が実在するセル数を超えたら、残りのセルを表から直接走査する
+                for (Cell c : this.table) {
+                    if (c == null) {
+                        continue;
+                    }
+                    int cx = (int) (c.key >> 32), cz = (int) c.key;
+                    if (Math.max(Math.abs((long) cx - ccx), Math.abs((long) cz - ccz)) >= ring) {
+                        c.collectNearest(x, y, z, heap);
+                    }
+                }
+                return;
+            }
+            if (ring == 0) {
+                this.collectNearest(ccx, ccz, x, y, z, heap);
+                continue;
+            }
+            for (int d = -ring; d <= ring; d++) {
+                this.collectNearest(ccx + d, ccz - ring, x, y, z, heap);
+                this.collectNearest(ccx + d, ccz + ring, x, y, z, heap);
+            }
+            for (int d = -ring + 1; d < ring; d++) {
+                this.collectNearest(ccx - ring, ccz + d, x, y, z, heap);
+                this.collectNearest(ccx + ring, ccz + d, x, y, z, heap);
+            }
+        }
+    }
+
+    private void collectNearest(int cx, int cz, double x, double y, double z, NearestHeap heap) {
+        Cell c = this.findCell(cellKey(cx, cz));
+        if (c != null) {
+            c.collectNearest(x, y, z, heap);
+        }
+    }
+
+    /**
+     * 近傍探索に用いる、距離の二乗を鍵とする大きさ制限付きの最大ヒープ.
+     * スレッド毎に使いまわされます。
+     */
+    private static final class NearestHeap {
+
+        private static final int INITIAL_CAPACITY = 16;
+        //これより大きな配列はスレッドに残さない
+        private static final int RETAINED_CAPACITY = 1024;
+
+        private double[] distances = new double[INITIAL_CAPACITY];
+        private Location[] locations = new Location[INITIAL_CAPACITY];
+        private int capacity, size;
+        private Location exclude;
+
+        //配列は要素が増えた時に必要な分だけ広げる
+        private void reset(int capacity, Location exclude) {
+            this.capacity = capacity;
+            this.size = 0;
+            this.exclude = exclude;
+        }
+
+        private boolean isFull() {
+            return this.size == this.capacity;
+        }
+
+        private double worst() {
+            return this.distances[0];
+        }
+
+        private void offer(double distance, Location loc) {
+            if (loc == this.exclude) {
+                return;
+            }
+            if (this.size < this.capacity) {
+                if (this.size == this.distances.length) {
+                    this.grow();
+                }
+                int i = this.size++;
+                while (i > 0) {
+                    int parent = (i - 1) >>> 1;
+                    if (this.distances[parent] >= distance) {
+                        break;
+                    }
+                    this.distances[i] = this.distances[parent];
+                    this.locations[i] = this.locations[parent];
+                    i = parent;
+                }
+                this.distances[i] = distance;
+                this.locations[i] = loc;
+            } else if (distance < this.distances[0]) {
+                this.siftDown(0, this.size, distance, loc);
+            }
+        }
+
+        private void grow() {
+            int length = (int) Math.min(this.capacity, this.distances.length * 2L);
+            this.distances = Arrays.copyOf(this.distances, length);
+            this.locations = Arrays.copyOf(this.locations, length);
+        }
+
+        private void siftDown(int i, int n, double distance, Location loc) {
+            for (;;) {
+                int child = 2 * i + 1;
+                if (child >= n) {
+                    break;
+                }
+                if (child + 1 < n && this.distances[child + 1] > this.distances[child]) {
+                    child++;
+                }
+                if (this.distances[child] <= distance) {
+                    break;
+                }
+                this.distances[i] = this.distances[child];
+                this.locations[i] = this.locations[child];
+                i = child;
+            }
+            this.distances[i] = distance;
+            this.locations[i] = loc;
+        }
+
+        //ヒープソートで昇順に並べてから格納する
+        private void drainTo(Collection<? super Location> result) {
+            for (int n = this.size - 1; n > 0; n--) {
+                double distance = this.distances[n];
+                Location loc = this.locations[n];
+                this.distances[n] = this.distances[0];
+                this.locations[n] = this.locations[0];
+                this.siftDown(0, n, distance, loc);
+            }
+            for (int i = 0; i < this.size; i++) {
+                result.add(this.locations[i]);
+            }
+        }
+
+        private void clear() {
+            if (this.distances.length > RETAINED_CAPACITY) {
+                this.distances = new double[INITIAL_CAPACITY];
+                this.locations = new Location[INITIAL_CAPACITY];
+            } else {
+                Arrays.fill(this.locations, 0, this.size, null);
+            }
+            this.size = 0;
+            this.exclude = null;
+        }
+    }
+
+    /**
+     * 同一セルに属する位置の集合.
+     * 要素はコピーオンライトの配列で保持されるため、読み込みはロックを取りません。
+     */
+    static final class Cell {
+
+        final SpatialIndex index;
+        final long key;
+        private volatile Location[] members = EMPTY;
+        private boolean dead = false;
+
+        private Cell(SpatialIndex index, long key) {
+            this.index = index;
+            this.key = key;
+        }
+
+        Location[] getMembers() {
+            return this.members;
+        }
+
+        private synchronized boolean add(Location loc) {
+            if (this.dead) {
+                return false;
+            }
+            Location[] m = this.members;
+            Location[] n = Arrays.copyOf(m, m.length + 1);
+            n[m.length] = loc;
+            this.members = n;
+            return true;
+        }
+
+        private synchronized boolean remove(Location loc) {
+            Location[] m = this.members;
+            for (int i = 0; i < m.length; i++) {
+                if (m[i] == loc) {
+                    Location[] n = new Location[m.length - 1];
+                    System.arraycopy(m, 0, n, 0, i);
+                    System.arraycopy(m, i + 1, n, i, m.length - i - 1);
+                    this.members = n;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private synchronized boolean retire() {
+            if (this.members.length == 0) {
+                this.dead = true;
+            }
+            return this.dead;
+        }
+
+        private synchronized boolean isDead() {
+            return this.dead;
+        }
+
+        private void collect(double minX, double minY, double minZ, double maxX, double maxY, double maxZ,
+                double cx, double cy, double cz, double radiusSquared, Collection<? super Location> result) {
+            for (Location loc : this.members) {
+                long v;
+                double x, y, z;
+                do {
+                    v = loc.getVersion();
+                    x = loc.getX();
+                    y = loc.getY();
+                    z = loc.getZ();
+                } while (!loc.validate(v));
+                if (loc.cell != this) {
+                    //移動中の位置は移動先のセルで数える
+                    continue;
+                }
+                if (x < minX || maxX < x || y < minY || maxY < y || z < minZ || maxZ < z) {
+                    continue;
+                }
+                if (radiusSquared >= 0D) {
+                    double dx = x - cx, dy = y - cy, dz = z - cz;
+                    if (dx * dx + dy * dy + dz * dz > radiusSquared) {
+                        continue;
+                    }
+                }
+                result.add(loc);
+            }
+        }
+
+        private void collectNearest(double cx, double cy, double cz, NearestHeap heap) {
+            for (Location loc : this.members) {
+                long v;
+                double x, y, z;
+                do {
+                    v = loc.getVersion();
+                    x = loc.getX();
+                    y = loc.getY();
+                    z = loc.getZ();
+                } while (!loc.validate(v));
+                if (loc.cell != this) {
+                    continue;
+                }
+                double dx = x - cx, dy = y - cy, dz = z - cz;
+                heap.offer(dx * dx + dy * dy + dz * dz, loc);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * StripedCounter.
+ * スレッド毎に異なる領域へ加算するカウンタです.
+ * Nettyのイベントループのように固定されたスレッドから頻繁に加算されても、
+ * 同じキャッシュラインを奪い合うことがありません。合計は読み取り時に求めます。
+ *
+ * @author toyblocks
+ */
+final class StripedCounter {
+
+    //一つの領域を64バイトのキャッシュラインに揃える
+    private static final int PADDING = 8;
+    static final int STRIPES = stripes();
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PADDING);
+
+    //プロセッサ数以上の2の冪
+    static int stripes() {
+        int n = Runtime.getRuntime().availableProcessors();
+        return Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    }
+
+    static int stripe() {
+        return (int) Thread.currentThread().getId() & (STRIPES - 1);
+    }
+
+    void increment() {
+        this.cells.getAndIncrement(stripe() * PADDING);
+    }
+
+    void add(long delta) {
+        this.cells.getAndAdd(stripe() * PADDING, delta);
+    }
+
+    long sum() {
+        long result = 0L;
+        for (int i = 0; i < STRIPES; i++) {
+            result += this.cells.get(i * PADDING);
+        }
+        return result;
+    }
+
+    void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            this.cells.set(i * PADDING, 0L);
+        }
+    }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+/**
+ * Vector.
+ * 三次元のベクトルです.
+ * {@link Location}と異なり可変で、演算は新たなインスタンスを生成せずに自身の値を書き換えます。
+ * 使いまわすことで、毎tickの大量の計算でもオブジェクトを生成せずに済みます。
+ * スレッドセーフではありません。
+ *
+ * @author toyblocks
+ */
+public final class Vector implements Cloneable {
+
+    private static final double RADIANS = Math.PI / 180D;
+
+    private double x, y, z;
+
+    /**
+     * 零ベクトルを作成します.
+     */
+    public Vector() {
+    }
+
+    /**
+     * ベクトルを作成します.
+     * @param x x成分
+     * @param y y成分
+     * @param z z成分
+     */
+    public Vector(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+    }
+
+    /**
+     * x成分を取得します.
+     * @return x成分
+     */
+    public double getX() {
+        return this.x;
+    }
+
+    /**
+     * y成分を取得します.
+     * @return y成分
+     */
+    public double getY() {
+        return this.y;
+    }
+
+    /**
+     * z成分を取得します.
+     * @return z成分
+     */
+    public double getZ() {
+        return this.z;
+    }
+
+    /**
+     * 各成分を設定します.
+     * @param x x成分
+     * @param y y成分
+     * @param z z成分
+     * @return 自身
+     */
+    public Vector set(double x, double y, double z) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        return this;
+    }
+
+    /**
+     * 他のベクトルと同じ値にします.
+     * @param other もう一方
+     * @return 自身
+     */
+    public Vector set(Vector other) {
+        return this.set(other.x, other.y, other.z);
+    }
+
+    /**
+     * 水平角度と垂直角度が表す向きの単位ベクトルにします.
+     * 角度はMinecraftと同じく、水平角度0がz軸の正の向き、垂直角度90が真下です。
+     * @param yaw 水平角度
+     * @param pitch 垂直角度
+     * @return 自身
+     */
+    public Vector setDirection(float yaw, float pitch) {
+        double ry = yaw * RADIANS, rp = pitch * RADIANS;
+        double horizontal = Math.cos(rp);
+        return this.set(-Math.sin(ry) * horizontal, -Math.sin(rp), Math.cos(ry) * horizontal);
+    }
+
+    /**
+     * 他のベクトルを加えます.
+     * @param other もう一方
+     * @return 自身
+     */
+    public Vector add(Vector other) {
+        return this.set(this.x + other.x, this.y + other.y, this.z + other.z);
+    }
+
+    /**
+     * 各成分に値を加えます.
+     * @param dx xに加える値
+     * @param dy yに加える値
+     * @param dz zに加える値
+     * @return 自身
+     */
+    public Vector add(double dx, double dy, double dz) {
+        return this.set(this.x + dx, this.y + dy, this.z + dz);
+    }
+
+    /**
+     * 他のベクトルを引きます.
+     * @param other もう一方
+     * @return 自身
+     */
+    public Vector subtract(Vector other) {
+        return this.set(this.x - other.x, this.y - other.y, this.z - other.z);
+    }
+
+    /**
+     * 各成分を一定倍します.
+     * @param m 倍率
+     * @return 自身
+     */
+    public Vector scaleInPlace(double m) {
+        return this.set(this.x * m, this.y * m, this.z * m);
+    }
+
+    /**
+     * 他のベクトルとの内積を取得します.
+     * @param other もう一方
+     * @return 内積
+     */
+    public double dot(Vector other) {
+        return this.x * other.x + this.y * other.y + this.z * other.z;
+    }
+
+    /**
+     * 他のベクトルとの外積にします.
+     * @param other もう一方
+     * @return 自身
+     */
+    public Vector cross(Vector other) {
+        return this.set(this.y * other.z - this.z * other.y, this.z * other.x - this.x * other.z, this.x * other.y - this.y * other.x);
+    }
+
+    /**
+     * 長さの二乗を取得します.
+     * @return 長さの二乗
+     */
+    public double lengthSquared() {
+        return this.x * this.x + this.y * this.y + this.z * this.z;
+    }
+
+    /**
+     * 長さを取得します.
+     * @return 長さ
+     */
+    public double length() {
+        return Math.sqrt(this.lengthSquared());
+    }
+
+    /**
+     * 他のベクトルとの距離の二乗を取得します.
+     * @param other もう一方
+     * @return 距離の二乗
+     */
+    public double distanceSquared(Vector other) {
+        double dx = this.x - other.x, dy = this.y - other.y, dz = this.z - other.z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * 同じ向きの単位ベクトルにします.
+     * 零ベクトルは零ベクトルのままです。
+     * @return 自身
+     */
+    public Vector normalize() {
+        double length = this.length();
+        return length == 0D ? this : this.scaleInPlace(1D / length);
+    }
+
+    @Override
+    public Vector clone() {
+        return new Vector(this.x, this.y, this.z);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof Vector)) {
+            return false;
+        }
+        Vector other = (Vector) obj;
+        return Double.doubleToLongBits(this.x) == Double.doubleToLongBits(other.x)
+                && Double.doubleToLongBits(this.y) == Double.doubleToLongBits(other.y)
+                && Double.doubleToLongBits(this.z) == Double.doubleToLongBits(other.z);
+    }
+
+    @Override
+    public int hashCode() {
+        long bx = Double.doubleToLongBits(this.x);
+        long by = Double.doubleToLongBits(this.y);
+        long bz = Double.doubleToLongBits(this.z);
+        int hash = 3;
+        hash = 59 * hash + (int) (bx ^ (bx >>> 32));
+        hash = 59 * hash + (int) (by ^ (by >>> 32));
+        hash = 59 * hash + (int) (bz ^ (bz >>> 32));
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return "Vector{" + "x=" + x + ", y=" + y + ", z=" + z + '}';
+    }
+
+}
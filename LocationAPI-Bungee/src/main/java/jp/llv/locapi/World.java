@@ -0,0 +1,302 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * World.
+ * 位置が属するワールドです。
+ * 同じワールドを表すインスタンスは常に一つに正規化されているため、
+ * {@code ==}で比較することができます。
+ *
+ * @author toyblocks
+ */
+public final class World {
+
+    private static final int NO_DIMENSION = Byte.MAX_VALUE;
+    private static final AtomicInteger counter = new AtomicInteger();
+    //正規化されたワールド. 一度登録されたワールドは置き換えない
+    private static final ConcurrentMap<Key, World> worlds = new ConcurrentHashMap<>();
+    //UUIDから引くための、LAPIWメッセージで最後に通知されたワールド
+    private static final ConcurrentMap<UUID, World> latest = new ConcurrentHashMap<>();
+    //通知されていないUUIDと名前から作られたワールド. 正規化されたワールドとは別に保持する
+    private static final ConcurrentMap<Key, World> unannounced = new ConcurrentHashMap<>();
+    //LocationAPI-Bukkitから通知されていないワールドはディメンション毎に一つのワールドとして扱う
+    private static final World[] placeholders;
+    /**
+     * ディメンションもわからないワールド
+     */
+    static final World UNKNOWN = new World(null, null, null, null);
+
+    static {
+        Location.Dimension[] dimensions = Location.Dimension.values();
+        placeholders = new World[dimensions.length];
+        for (Location.Dimension dimension : dimensions) {
+            placeholders[dimension.ordinal()] = new World(null, null, dimension, null);
+        }
+    }
+
+    /**
+     * UUIDからワールドを取得します.
+     * 同じテンプレートから作られたサーバーのように、複数のサーバーが同じUUIDのワールドを持つ場合は、
+     * 最後に通知されたワールドを返します。
+     * @param uuid ワールドのUUID
+     * @return 通知されたワールドならそのワールド、そうでなければ{@code null}
+     */
+    public static World of(UUID uuid) {
+        return uuid == null ? null : latest.get(uuid);
+    }
+
+    /**
+     * UUIDと名前に対応するワールドを取得します.
+     * 通知されたワールドであれば、名前に関わらずUUIDからそのワールドを返します。
+     * 通知されていないワールドであれば、ディメンションとサーバーが不明なワールドを返します。
+     * このワールドはプレイヤーの位置するワールドとは一致せず、後から通知されても置き換えられません。
+     * @param uuid ワールドのUUID. 不明なら{@code null}
+     * @param name ワールドの名前
+     * @return 対応するワールド. UUIDが{@code null}ならディメンションもわからないワールド
+     */
+    public static World of(UUID uuid, String name) {
+        if (uuid == null) {
+            return UNKNOWN;
+        }
+        World result = latest.get(uuid);
+        if (result != null) {
+            return result;
+        }
+        Key key = new Key(uuid, name, null, null);
+        result = unannounced.get(key);
+        if (result == null) {
+            World created = new World(uuid, name, null, null);
+            result = unannounced.putIfAbsent(key, created);
+            if (result == null) {
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * ディメンションのみがわかっているワールドを取得します.
+     * @param dimension ディメンション
+     * @return ディメンション毎に一つのワールド
+     */
+    static World of(Location.Dimension dimension) {
+        return dimension == null ? UNKNOWN : placeholders[dimension.ordinal()];
+    }
+
+    /**
+     * 通知されたワールドを正規化します.
+     * ワールドはUUID, 名前, ディメンション, サーバーの組で区別され、
+     * 既に同じ内容で登録されていればそのワールドを返します。
+     */
+    static World intern(UUID uuid, String name, Location.Dimension dimension, String server) {
+        Key key = new Key(uuid, name, dimension, server);
+        World result = worlds.get(key);
+        if (result == null) {
+            World created = new World(uuid, name, dimension, server);
+            result = worlds.putIfAbsent(key, created);
+            if (result == null) {
+                MovementJournal.bind(created);
+                result = created;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * LAPIWメッセージで通知されたワールドを正規化し、UUIDから引けるようにします.
+     */
+    static World announce(UUID uuid, String name, Location.Dimension dimension, String server) {
+        World result = intern(uuid, name, dimension, server);
+        latest.put(uuid, result);
+        return result;
+    }
+
+    //ディメンション毎のワールドを含む、現在使われているワールド
+    static List<World> getInterned() {
+        List<World> result = new ArrayList<>(Arrays.asList(placeholders));
+        result.add(UNKNOWN);
+        result.addAll(worlds.values());
+        return result;
+    }
+
+    /**
+     * バッファから{@link #writeTo(java.nio.ByteBuffer)}で書き込まれたワールドを読み込み、正規化します.
+     */
+    static World readFrom(ByteBuffer buf) {
+        int id = buf.get();
+        Location.Dimension dimension = id == NO_DIMENSION ? null : Location.Dimension.ofId(id);
+        long msb = buf.getLong(), lsb = buf.getLong();
+        String name = getString(buf), server = getString(buf);
+        if (msb == 0L && lsb == 0L) {
+            //ワールドの通知を受けていないサーバーのディメンション
+            return of(dimension);
+        }
+        return intern(new UUID(msb, lsb), name, dimension, server);
+    }
+
+    private static String getString(ByteBuffer buf) {
+        int length = buf.getShort();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buf.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] value = new byte[length];
+        buf.get(value);
+        return new String(value, StandardCharsets.UTF_8);
+    }
+
+    private final UUID uuid;
+    private final String name;
+    private final Location.Dimension dimension;
+    private final String server;
+    //SpatialIndex等が配列の添字として用いる連番
+    private final int index;
+    private final byte[] encodedName, encodedServer;
+
+    private World(UUID uuid, String name, Location.Dimension dimension, String server) {
+        this.uuid = uuid;
+        this.name = name;
+        this.dimension = dimension;
+        this.server = server;
+        this.index = counter.getAndIncrement();
+        this.encodedName = name == null ? null : name.getBytes(StandardCharsets.UTF_8);
+        this.encodedServer = server == null ? null : server.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * ワールドのUUIDを取得します.
+     * 取得にはBukkit-APIを実装するサーバー上で
+     * LocationAPI-Bukkitプラグインを実行している必要があります。
+     * @return 記録されているならワールドのUUID, そうでないなら{@code null}
+     */
+    public UUID getUUID() {
+        return this.uuid;
+    }
+
+    /**
+     * ワールドの名前を取得します.
+     * 取得にはBukkit-APIを実装するサーバー上で
+     * LocationAPI-Bukkitプラグインを実行している必要があります。
+     * @return 記録されているならワールドの名前, そうでないなら{@code null}
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * ワールドのディメンションを取得します.
+     * @return 記録されているならディメンション, そうでないなら{@code null}
+     */
+    public Location.Dimension getDimension() {
+        return this.dimension;
+    }
+
+    /**
+     * ワールドが存在するサーバーの名前を取得します.
+     * @return 記録されているならサーバーの名前, そうでないなら{@code null}
+     */
+    public String getServer() {
+        return this.server;
+    }
+
+    int getIndex() {
+        return this.index;
+    }
+
+    //書き込みに必要なバイト数
+    int getEncodedSize() {
+        return 17 + 2 + (this.name == null ? 0 : this.encodedName.length) + 2 + (this.server == null ? 0 : this.encodedServer.length);
+    }
+
+    /**
+     * ワールドをバッファへ書き込みます.
+     * ディメンション(byte), UUID, 名前, サーバーの名前の順で、文字列はUTF-8の長さ(short)と内容です。
+     */
+    void writeTo(ByteBuffer buf) {
+        buf.put(this.dimension == null ? NO_DIMENSION : (byte) this.dimension.getId());
+        buf.putLong(this.uuid == null ? 0L : this.uuid.getMostSignificantBits());
+        buf.putLong(this.uuid == null ? 0L : this.uuid.getLeastSignificantBits());
+        putString(buf, this.encodedName);
+        putString(buf, this.encodedServer);
+    }
+
+    private static void putString(ByteBuffer buf, byte[] value) {
+        if (value == null) {
+            buf.putShort((short) -1);
+            return;
+        }
+        buf.putShort((short) value.length).put(value);
+    }
+
+    @Override
+    public String toString() {
+        return "World{" + "uuid=" + uuid + ", name=" + name + ", dimension=" + dimension + ", server=" + server + '}';
+    }
+
+    private static final class Key {
+
+        private final UUID uuid;
+        private final String name;
+        private final Location.Dimension dimension;
+        private final String server;
+
+        private Key(UUID uuid, String name, Location.Dimension dimension, String server) {
+            this.uuid = uuid;
+            this.name = name;
+            this.dimension = dimension;
+            this.server = server;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.uuid, this.name, this.dimension, this.server);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return this.uuid.equals(other.uuid) && Objects.equals(this.name, other.name)
+                    && this.dimension == other.dimension && Objects.equals(this.server, other.server);
+        }
+
+    }
+
+}
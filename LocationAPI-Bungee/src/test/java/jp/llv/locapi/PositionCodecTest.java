@@ -0,0 +1,210 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2015 toyblocks.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package jp.llv.locapi;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import org.junit.Test;
+
+/**
+ * PositionCodecTest.
+ * {@link PositionCodec}で符号化した位置が、{@link Location}の値から誤差の上限以内で復号されることを確かめます.
+ *
+ * @author toyblocks
+ */
+public class PositionCodecTest {
+
+    private static final double MAX_ERROR = 1D / 4096D;
+    //1バイトに詰められた角度の誤差の上限
+    private static final double ANGLE_ERROR = 180D / 256D + 1e-4;
+    //座標の絶対値が大きい場合に、量子化した値を戻す際の丸め
+    private static final double EPSILON = 1e-7;
+    private static final int SAMPLES = 5000;
+
+    private final PositionCodec codec = new PositionCodec(MAX_ERROR, 32);
+
+    @Test
+    public void roundTripWithinErrorBound() {
+        Location[] locations = walk(new Random(0L), 1.2e6, 64D, -3e5);
+        ByteBuffer buf = ByteBuffer.allocate(SAMPLES * PositionCodec.MAX_ENCODED_SIZE);
+        PositionCodec.Encoder encoder = this.codec.newEncoder();
+        for (int i = 0; i < SAMPLES; i++) {
+            encode(encoder, buf, i, locations[i]);
+        }
+        buf.flip();
+        PositionCodec.Decoder decoder = this.codec.newDecoder();
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(decoder.decode(buf));
+            assertDecoded(locations[i], time(i), decoder);
+        }
+        assertFalse(buf.hasRemaining());
+    }
+
+    @Test
+    public void roundTripAtWorldBorder() {
+        ByteBuffer buf = ByteBuffer.allocate(4 * PositionCodec.MAX_ENCODED_SIZE);
+        PositionCodec.Encoder encoder = this.codec.newEncoder();
+        Location[] locations = {
+            Location.of(3e7 - 0.3, 255.99, -3e7 + 0.3, 0F, 0F, true),
+            Location.of(-3e7 + 0.3, 0.01, 3e7 - 0.3, 0F, 0F, false),
+            Location.of(0.5 / 4096D, -0.5 / 4096D, 1.5 / 4096D, 0F, 0F, true),
+            Location.of(3e7 - 0.3, 255.99, -3e7 + 0.3, 0F, 0F, true)
+        };
+        for (int i = 0; i < locations.length; i++) {
+            encode(encoder, buf, i, locations[i]);
+        }
+        buf.flip();
+        PositionCodec.Decoder decoder = this.codec.newDecoder();
+        for (int i = 0; i < locations.length; i++) {
+            assertTrue(decoder.decode(buf));
+            assertDecoded(locations[i], time(i), decoder);
+        }
+    }
+
+    @Test
+    public void yawWrapsAtHalfTurn() {
+        float[] yaws = {179.9F, 180F, -180F, -179.9F, 359.5F, 540F, -190F, 1000F, -1000F};
+        ByteBuffer buf = ByteBuffer.allocate(yaws.length * PositionCodec.MAX_ENCODED_SIZE);
+        PositionCodec.Encoder encoder = this.codec.newEncoder();
+        for (int i = 0; i < yaws.length; i++) {
+            encoder.encode(buf, time(i), 0D, 64D, 0D, yaws[i], 0F, true);
+        }
+        buf.flip();
+        PositionCodec.Decoder decoder = this.codec.newDecoder();
+        for (float yaw : yaws) {
+            assertTrue(decoder.decode(buf));
+            assertTrue(decoder.getYaw() >= -180F && decoder.getYaw() < 180F);
+            assertEquals(0D, wrap(decoder.getYaw() - yaw), ANGLE_ERROR);
+        }
+    }
+
+    @Test
+    public void decoderResyncsAtKeyframeAfterReset() {
+        PositionCodec keyframes = new PositionCodec(MAX_ERROR, 4);
+        Location[] locations = walk(new Random(1L), 100D, 70D, 100D);
+        ByteBuffer buf = ByteBuffer.allocate(12 * PositionCodec.MAX_ENCODED_SIZE);
+        PositionCodec.Encoder encoder = keyframes.newEncoder();
+        for (int i = 0; i < 12; i++) {
+            encode(encoder, buf, i, locations[i]);
+        }
+        buf.flip();
+        PositionCodec.Decoder decoder = keyframes.newDecoder();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(decoder.decode(buf));
+        }
+        decoder.reset();
+        //キーフレームまでの差分は読み飛ばされ、最後に復号した位置は変わらない
+        for (int i = 5; i < 8; i++) {
+            assertFalse(decoder.decode(buf));
+            assertDecoded(locations[4], time(4), decoder);
+        }
+        for (int i = 8; i < 12; i++) {
+            assertTrue(decoder.decode(buf));
+            assertDecoded(locations[i], time(i), decoder);
+        }
+    }
+
+    @Test
+    public void byteBufAndByteBufferAreInterchangeable() {
+        Location[] locations = walk(new Random(2L), -5e4, 30D, 7e5);
+        ByteBuf buf = Unpooled.buffer(SAMPLES * PositionCodec.MAX_ENCODED_SIZE);
+        ByteBuffer nio = ByteBuffer.allocate(SAMPLES * PositionCodec.MAX_ENCODED_SIZE);
+        PositionCodec.Encoder bufEncoder = this.codec.newEncoder(), nioEncoder = this.codec.newEncoder();
+        for (int i = 0; i < SAMPLES; i++) {
+            encode(bufEncoder, buf, i, locations[i]);
+            encode(nioEncoder, nio, i, locations[i]);
+        }
+        nio.flip();
+        byte[] fromBuf = new byte[buf.readableBytes()];
+        buf.getBytes(buf.readerIndex(), fromBuf);
+        byte[] fromNio = Arrays.copyOf(nio.array(), nio.limit());
+        assertArrayEquals(fromNio, fromBuf);
+        //互いに書き込んだものを読み込む
+        ByteBuf wrapped = Unpooled.wrappedBuffer(fromNio);
+        ByteBuffer nioOfBuf = ByteBuffer.wrap(fromBuf);
+        PositionCodec.Decoder bufDecoder = this.codec.newDecoder(), nioDecoder = this.codec.newDecoder();
+        for (int i = 0; i < SAMPLES; i++) {
+            assertTrue(bufDecoder.decode(wrapped));
+            assertTrue(nioDecoder.decode(nioOfBuf));
+            assertDecoded(locations[i], time(i), bufDecoder);
+            assertEquals(bufDecoder.getX(), nioDecoder.getX(), 0D);
+            assertEquals(bufDecoder.getY(), nioDecoder.getY(), 0D);
+            assertEquals(bufDecoder.getZ(), nioDecoder.getZ(), 0D);
+            assertEquals(bufDecoder.getYaw(), nioDecoder.getYaw(), 0F);
+            assertEquals(bufDecoder.getPitch(), nioDecoder.getPitch(), 0F);
+        }
+        assertFalse(wrapped.isReadable());
+        assertFalse(nioOfBuf.hasRemaining());
+    }
+
+    //クライアントが送る程度の移動を続けるプレイヤー
+    private static Location[] walk(Random random, double x, double y, double z) {
+        Location[] result = new Location[SAMPLES];
+        float yaw = 0F;
+        for (int i = 0; i < SAMPLES; i++) {
+            x += random.nextGaussian() * 0.3;
+            y += random.nextGaussian() * 0.1;
+            z += random.nextGaussian() * 0.3;
+            yaw += random.nextFloat() * 40F - 20F;
+            float pitch = random.nextFloat() * 180F - 90F;
+            result[i] = Location.of(x, y, z, yaw, pitch, i % 3 == 0);
+        }
+        return result;
+    }
+
+    private static long time(int i) {
+        return 1000L + i * 50L;
+    }
+
+    private static void encode(PositionCodec.Encoder encoder, ByteBuffer buf, int i, Location loc) {
+        encoder.encode(buf, time(i), loc.getX(), loc.getY(), loc.getZ(), loc.getYaw(), loc.getPitch(), loc.isOnGround());
+    }
+
+    private static void encode(PositionCodec.Encoder encoder, ByteBuf buf, int i, Location loc) {
+        encoder.encode(buf, time(i), loc.getX(), loc.getY(), loc.getZ(), loc.getYaw(), loc.getPitch(), loc.isOnGround());
+    }
+
+    private static void assertDecoded(Location expected, long time, PositionCodec.Decoder decoder) {
+        assertEquals(time, decoder.getTime());
+        assertEquals(expected.getX(), decoder.getX(), MAX_ERROR + EPSILON);
+        assertEquals(expected.getY(), decoder.getY(), MAX_ERROR + EPSILON);
+        assertEquals(expected.getZ(), decoder.getZ(), MAX_ERROR + EPSILON);
+        assertEquals(0D, wrap(decoder.getYaw() - expected.getYaw()), ANGLE_ERROR);
+        assertEquals(expected.getPitch(), decoder.getPitch(), ANGLE_ERROR);
+        assertEquals(expected.isOnGround(), decoder.isOnGround());
+    }
+
+    //-180以上180未満に丸めた角度の差
+    private static double wrap(double angle) {
+        return ((angle % 360D) + 540D) % 360D - 180D;
+    }
+
+}